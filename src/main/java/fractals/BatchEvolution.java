@@ -0,0 +1,319 @@
+package fractals;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Evolves Fractals without the window. Every generation is rendered in full, rated by a Fitness, and the best
+ * Fractals become the parents of the next generation, just as if a user had selected them.
+ *
+ * With a fixed seed (see Randoms.setSeed, or -Dfractals.seed) a run always evolves the same Fractals.
+ *
+ * From the command line: java fractals.BatchEvolution generations top [output directory]
+ * The fitness can be given as an expression with -Dfractals.fitness, see expression(String).
+ */
+public final class BatchEvolution {
+    //The system property used to give the fitness as an expression, for example: -Dfractals.fitness="x*y"
+    public static final String FITNESS_PROPERTY = "fractals.fitness";
+
+    private final Generator generator;
+    private final Fitness fitness;
+    //The settings of the genetic operations
+    private EvolutionConfig config = EvolutionConfig.DEFAULT;
+    //The number of best Fractals of every generation that are written and used as parents
+    private int top = 3;
+    //The directory the best Fractals are written to, or null if they are not written
+    private File outputDirectory;
+    private int width, height, points;
+
+    //The number of Fractals created and rendered so far and how long it took
+    private long fractalsRendered, nanoseconds;
+
+    /**
+     * A Fractal of a generation together with its rendered image and how it was rated.
+     */
+    public static final class Result {
+        private final Fractal fractal;
+        private final BufferedImage image;
+        private final ImageScore score;
+        private final double fitness;
+
+        private Result(Fractal fractal, BufferedImage image, ImageScore score, double fitness) {
+            this.fractal = fractal;
+            this.image = image;
+            this.score = score;
+            this.fitness = fitness;
+        }
+
+        public Fractal getFractal() {
+            return fractal;
+        }
+
+        public BufferedImage getImage() {
+            return image;
+        }
+
+        public ImageScore getScore() {
+            return score;
+        }
+
+        public double getFitness() {
+            return fitness;
+        }
+    }
+
+    /**
+     * Creates a batch evolution that continues the generations of the given Generator and rates their Fractals with
+     * the given Fitness. Images are rendered at the size and number of points of a cell of the Generator's grid.
+     *
+     * @param generator
+     * @param fitness
+     */
+    public BatchEvolution(Generator generator, Fitness fitness) {
+        this.generator = generator;
+        this.fitness = fitness;
+        Dimension size = Fractal.getImageSize(generator.getGrid());
+        width = size.width;
+        height = size.height;
+        points = Fractal.getImagePoints(generator.getGrid());
+    }
+
+    /**
+     * Sets the number of best Fractals of every generation that are written and used as the parents of the next
+     * generation.
+     *
+     * @param top
+     */
+    public void setTop(int top) {
+        if (top < 1) {
+            throw new IllegalArgumentException("At least one Fractal must be kept: " + top);
+        }
+        this.top = top;
+    }
+
+    /**
+     * Sets the settings the genetic operations evolve the Fractals with
+     *
+     * @param config
+     */
+    public void setConfig(EvolutionConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Sets the directory the best Fractals of every generation are written to, or null to not write them.
+     *
+     * @param outputDirectory
+     */
+    public void setOutputDirectory(File outputDirectory) {
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Sets the size of the rendered images and the number of points plotted for each of them.
+     *
+     * @param width
+     * @param height
+     * @param points
+     */
+    public void setImageSize(int width, int height, int points) {
+        if (width <= 0 || height <= 0 || points <= 0) {
+            throw new IllegalArgumentException("Invalid render size: " + width + "x" + height + ", " + points + " " +
+                    "points");
+        }
+        this.width = width;
+        this.height = height;
+        this.points = points;
+    }
+
+    /**
+     * Runs the given number of generations. The first generation is bred from the current generation of the Generator
+     * if it has one, and is completely random otherwise.
+     *
+     * @param generations
+     *
+     * @return the best Fractals of the last generation, best first
+     *
+     * @throws IOException if the best Fractals could not be written
+     */
+    public List<Result> run(int generations) throws IOException {
+        ExecutorService renderers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            List<Result> best = rate(renderers, generator.getFractals());
+            for (int i = 0; i < generations; i++) {
+                long start = System.nanoTime();
+                ArrayList<Fractal> parents = new ArrayList<>(best.size());
+                for (Result result : best) {
+                    parents.add(result.getFractal());
+                }
+                generator.generateNewGeneration(parents, config);
+                best = rate(renderers, generator.getFractals());
+                long elapsed = System.nanoTime() - start;
+
+                fractalsRendered += generator.getFractals().size();
+                nanoseconds += elapsed;
+                write(best);
+                System.out.println(String.format("Generation %d: %d fractals in %.2f s (%.1f fractals/sec), best " +
+                                "fitness %.4f", generator.getGeneration(), generator.getFractals().size(), elapsed / 1e9,
+                        generator.getFractals().size() / (elapsed / 1e9), best.get(0).getFitness()));
+            }
+            return best;
+        } finally {
+            renderers.shutdownNow();
+        }
+    }
+
+    /**
+     * Returns the number of Fractals created and rendered per second over all generations run so far
+     *
+     * @return
+     */
+    public double getFractalsPerSecond() {
+        return nanoseconds == 0 ? 0 : fractalsRendered / (nanoseconds / 1e9);
+    }
+
+    /**
+     * Renders the given Fractals in parallel and returns the best ones, best first. Fractals that are equally fit keep
+     * their order in the grid.
+     *
+     * @param renderers
+     * @param fractals
+     *
+     * @return
+     */
+    private List<Result> rate(ExecutorService renderers, List<Fractal> fractals) {
+        ArrayList<Future<Result>> futures = new ArrayList<>(fractals.size());
+        for (final Fractal f : fractals) {
+            futures.add(renderers.submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    Renderer renderer = new Renderer(width, height, points);
+                    //Each Fractal is rendered on a single thread, since a whole generation is rendered at once
+                    renderer.setOrbits(1);
+                    renderer.setToneMap(f.getToneMap());
+                    BufferedImage image = renderer.render(f);
+                    ImageScore score = renderer.getScore();
+                    double value = fitness.evaluate(f, score);
+                    //Fitness that cannot be compared ranks last
+                    return new Result(f, image, score, Double.isNaN(value) ? Double.NEGATIVE_INFINITY : value);
+                }
+            }));
+        }
+
+        ArrayList<Result> results = new ArrayList<>(fractals.size());
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while rendering", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Rendering failed", e.getCause());
+            }
+        }
+
+        Collections.sort(results, new Comparator<Result>() {
+            @Override
+            public int compare(Result a, Result b) {
+                return Double.compare(b.getFitness(), a.getFitness());
+            }
+        });
+        return results.subList(0, Math.min(top, results.size()));
+    }
+
+    /**
+     * Writes the image of each of the given Fractals as a PNG file, together with a text file holding its Equations
+     * and how it was rated, to a directory of the current generation.
+     *
+     * @param best
+     *
+     * @throws IOException
+     */
+    private void write(List<Result> best) throws IOException {
+        if (outputDirectory == null) {
+            return;
+        }
+        File directory = new File(outputDirectory, String.format("generation-%04d", generator.getGeneration()));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        for (int rank = 1; rank <= best.size(); rank++) {
+            Result result = best.get(rank - 1);
+            String name = String.format("rank-%02d", rank);
+            ImageIO.write(result.getImage(), "png", new File(directory, name + ".png"));
+
+            Fractal f = result.getFractal();
+            List<String> lines = Arrays.asList("x: " + f.getX(), "y: " + f.getY(), "z: " + f.getZ(),
+                    "r: " + f.getR(), "g: " + f.getG(), "b: " + f.getB(), "fitness: " + result.getFitness(),
+                    "score: " + result.getScore());
+            Files.write(new File(directory, name + ".txt").toPath(), lines, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Returns a Fitness that evaluates the given expression, in which x is the coverage of the image, y its entropy, z
+     * the fill of its bounding box, and r is 1 if the image is sparse and 0 otherwise. For example, x*y - r rates
+     * images like Fitness.SCORE.
+     *
+     * @param expression
+     *
+     * @return
+     *
+     * @throws ExpressionParseException if the expression is not valid
+     */
+    public static Fitness expression(final String expression) {
+        final Equation equation = new Equation(expression);
+        return new Fitness() {
+            @Override
+            public double evaluate(Fractal fractal, ImageScore score) {
+                return equation.evaluate(score.getCoverage(), score.getEntropy(), score.getBoundingBoxFill(),
+                        score.isSparse() ? 1 : 0, 0, 0);
+            }
+
+            @Override
+            public String toString() {
+                return expression;
+            }
+        };
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2 || args.length > 3) {
+            System.err.println("Usage: java fractals.BatchEvolution generations top [output directory]");
+            System.exit(1);
+        }
+        int generations = Integer.parseInt(args[0]);
+        int top = Integer.parseInt(args[1]);
+
+        String expression = System.getProperty(FITNESS_PROPERTY);
+        Fitness fitness = expression == null ? Fitness.SCORE : expression(expression);
+        Generator generator = new Generator();
+        BatchEvolution evolution = new BatchEvolution(generator, fitness);
+        evolution.setTop(top);
+        if (args.length == 3) {
+            evolution.setOutputDirectory(new File(args[2]));
+        }
+
+        //Print the seed so that the run can be repeated with -Dfractals.seed
+        System.out.println("Evolving " + generations + " generations of a " + generator.getGrid() + " grid with seed " +
+                Randoms.getSeed() + " and fitness " + fitness);
+        evolution.run(generations);
+        System.out.println(String.format("%.1f fractals/sec", evolution.getFractalsPerSecond()));
+    }
+}
@@ -0,0 +1,105 @@
+package fractals;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Signals that a piece of work, such as the render of an image, is no longer needed.
+ *
+ * Cancellation is cooperative: canceling a token does not stop anything by itself. Long-running loops check the token
+ * regularly and stop by throwing a CancellationException once it has been canceled. Work that blocks, such as waiting
+ * for a child process, registers a listener that unblocks it when the token is canceled. A token cannot be reset.
+ */
+public final class CancellationToken {
+    private volatile boolean canceled = false;
+    //The listeners that have not been run yet
+    private final CopyOnWriteArrayList<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Cancels the work this token was handed to and runs every registered listener on the calling thread.
+     */
+    public void cancel() {
+        canceled = true;
+        for (Runnable listener : listeners) {
+            runOnce(listener);
+        }
+    }
+
+    /**
+     * Registers a listener that is run once when the token is canceled. If the token has already been canceled, the
+     * listener is run immediately.
+     *
+     * @param listener
+     */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+        if (canceled) {
+            runOnce(listener);
+        }
+    }
+
+    /**
+     * Unregisters a listener once the work it would unblock has finished.
+     *
+     * @param listener
+     */
+    public void removeListener(Runnable listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Runs a listener unless another thread has already run it.
+     *
+     * @param listener
+     */
+    private void runOnce(Runnable listener) {
+        if (listeners.remove(listener)) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Returns whether cancel() has been called.
+     *
+     * @return
+     */
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    /**
+     * Throws a CancellationException if cancel() has been called.
+     */
+    public void throwIfCanceled() {
+        if (canceled) {
+            throw new CancellationException();
+        }
+    }
+
+    /**
+     * Waits for the given number of milliseconds, returning early with a CancellationException if the token is
+     * canceled in the meantime.
+     *
+     * @param millis
+     *
+     * @throws InterruptedException
+     */
+    public void sleep(long millis) throws InterruptedException {
+        final CountDownLatch wake = new CountDownLatch(1);
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                wake.countDown();
+            }
+        };
+        addListener(listener);
+        try {
+            wake.await(millis, TimeUnit.MILLISECONDS);
+        } finally {
+            removeListener(listener);
+        }
+        throwIfCanceled();
+    }
+}
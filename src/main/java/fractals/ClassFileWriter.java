@@ -0,0 +1,449 @@
+package fractals;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes minimal Java class files. This is used to compile Equations into JVM bytecode so that they can be evaluated
+ * as fast as hand-written Java code.
+ *
+ * A written class extends Object, implements a single interface, and has a public no-argument constructor plus the
+ * methods added with addMethod(). Classes are written with version 49 (Java 5) so that the JVM verifies them without
+ * requiring StackMapTable attributes.
+ */
+class ClassFileWriter {
+    private static final int VERSION = 49;
+
+    //Access flags
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_FINAL = 0x0010;
+    private static final int ACC_SUPER = 0x0020;
+
+    //Constant pool tags
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    //Opcodes used by the generated code
+    static final int ICONST_0 = 0x03;
+    static final int BIPUSH = 0x10;
+    static final int SIPUSH = 0x11;
+    static final int DCONST_0 = 0x0e;
+    static final int DCONST_1 = 0x0f;
+    static final int LDC2_W = 0x14;
+    static final int DLOAD = 0x18;
+    static final int ALOAD = 0x19;
+    static final int DALOAD = 0x31;
+    static final int DSTORE = 0x39;
+    static final int DASTORE = 0x52;
+    static final int DADD = 0x63;
+    static final int DSUB = 0x67;
+    static final int DMUL = 0x6b;
+    static final int DDIV = 0x6f;
+    static final int DNEG = 0x77;
+    static final int DCMPL = 0x97;
+    static final int IFLE = 0x9e;
+    static final int GOTO = 0xa7;
+    static final int DRETURN = 0xaf;
+    static final int RETURN = 0xb1;
+    static final int INVOKESPECIAL = 0xb7;
+    static final int INVOKESTATIC = 0xb8;
+    static final int WIDE = 0xc4;
+
+    //Used to give every generated class a unique name
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private final String name;
+    private final ByteArrayOutputStream constantPool = new ByteArrayOutputStream();
+    private final DataOutputStream constants = new DataOutputStream(constantPool);
+    //The index of every constant that has been added, keyed by its tag and value
+    private final HashMap<String, Integer> constantIndices = new HashMap<>();
+    //The next free index in the constant pool. Index 0 is reserved by the class file format.
+    private int constantCount = 1;
+
+    private final ByteArrayOutputStream methodBytes = new ByteArrayOutputStream();
+    private final DataOutputStream methods = new DataOutputStream(methodBytes);
+    private int methodCount = 0;
+
+    private final int thisClass, superClass, interfaceClass;
+
+    /**
+     * Creates a writer for a new uniquely named class with the given name prefix that implements the given interface.
+     *
+     * @param prefix
+     * @param implemented
+     */
+    ClassFileWriter(String prefix, Class<?> implemented) {
+        name = prefix + classCount.incrementAndGet();
+        thisClass = classConstant(internalName(name));
+        superClass = classConstant("java/lang/Object");
+        interfaceClass = classConstant(internalName(implemented.getName()));
+
+        //Every class gets a public constructor that just calls Object()
+        Code constructor = new Code(1);
+        constructor.op(ALOAD);
+        constructor.u1(0);
+        constructor.push(1);
+        constructor.op(INVOKESPECIAL);
+        constructor.u2(methodConstant("java/lang/Object", "<init>", "()V"));
+        constructor.pop(1);
+        constructor.op(RETURN);
+        addMethod("<init>", "()V", constructor);
+    }
+
+    /**
+     * Returns the binary name of the class being written
+     *
+     * @return
+     */
+    String getName() {
+        return name;
+    }
+
+    /**
+     * Adds a public method with the given name, descriptor, and code to the class.
+     *
+     * @param methodName
+     * @param descriptor
+     * @param code
+     */
+    void addMethod(String methodName, String descriptor, Code code) {
+        if (code.length > 0xFFFF) {
+            throw new IllegalStateException("Method is too large");
+        }
+        try {
+            methods.writeShort(ACC_PUBLIC);
+            methods.writeShort(utf8Constant(methodName));
+            methods.writeShort(utf8Constant(descriptor));
+            //A single Code attribute
+            methods.writeShort(1);
+            methods.writeShort(utf8Constant("Code"));
+            methods.writeInt(12 + code.length);
+            methods.writeShort(code.maxStack);
+            methods.writeShort(code.maxLocals);
+            methods.writeInt(code.length);
+            methods.write(code.bytes, 0, code.length);
+            //No exception table and no attributes on the Code attribute
+            methods.writeShort(0);
+            methods.writeShort(0);
+            methodCount++;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the bytes of the finished class file
+     *
+     * @return
+     */
+    byte[] toByteArray() {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(constantCount);
+            constantPool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_FINAL | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            //No fields
+            out.writeShort(0);
+            out.writeShort(methodCount);
+            methodBytes.writeTo(out);
+            //No class attributes
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Defines the written class in its own ClassLoader and returns a new instance of it. Each class gets its own
+     * ClassLoader so that the class can be unloaded once the instance is no longer used.
+     *
+     * @param type
+     * @param <T>
+     *
+     * @return
+     *
+     * @throws ReflectiveOperationException if the class cannot be instantiated, including NoSuchMethodException if it
+     *                                      has no constructor without parameters and InvocationTargetException if the
+     *                                      constructor throws
+     */
+    <T> T newInstance(Class<T> type) throws ReflectiveOperationException {
+        byte[] bytes = toByteArray();
+        Class<?> defined = new Loader(type.getClassLoader()).define(name, bytes);
+        return type.cast(defined.getDeclaredConstructor().newInstance());
+    }
+
+    /**
+     * Returns the index of a Utf8 constant, adding it to the constant pool if necessary.
+     *
+     * @param value
+     *
+     * @return
+     */
+    int utf8Constant(String value) {
+        Integer index = constantIndices.get("U" + value);
+        if (index != null) {
+            return index;
+        }
+        try {
+            constants.writeByte(CONSTANT_UTF8);
+            constants.writeUTF(value);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return addConstant("U" + value, 1);
+    }
+
+    /**
+     * Returns the index of a Class constant with the given internal name.
+     *
+     * @param internalName
+     *
+     * @return
+     */
+    int classConstant(String internalName) {
+        Integer index = constantIndices.get("C" + internalName);
+        if (index != null) {
+            return index;
+        }
+        int nameIndex = utf8Constant(internalName);
+        try {
+            constants.writeByte(CONSTANT_CLASS);
+            constants.writeShort(nameIndex);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return addConstant("C" + internalName, 1);
+    }
+
+    /**
+     * Returns the index of a Methodref constant for a method of a class.
+     *
+     * @param owner      the internal name of the class declaring the method
+     * @param methodName
+     * @param descriptor
+     *
+     * @return
+     */
+    int methodConstant(String owner, String methodName, String descriptor) {
+        String key = "M" + owner + "." + methodName + descriptor;
+        Integer index = constantIndices.get(key);
+        if (index != null) {
+            return index;
+        }
+        int ownerIndex = classConstant(owner);
+        int nameIndex = utf8Constant(methodName);
+        int descriptorIndex = utf8Constant(descriptor);
+        try {
+            constants.writeByte(CONSTANT_NAME_AND_TYPE);
+            constants.writeShort(nameIndex);
+            constants.writeShort(descriptorIndex);
+            int nameAndType = addConstant("N" + methodName + descriptor, 1);
+            constants.writeByte(CONSTANT_METHODREF);
+            constants.writeShort(ownerIndex);
+            constants.writeShort(nameAndType);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return addConstant(key, 1);
+    }
+
+    /**
+     * Returns the index of a Double constant, adding it to the constant pool if necessary.
+     *
+     * @param value
+     *
+     * @return
+     */
+    int doubleConstant(double value) {
+        long bits = Double.doubleToRawLongBits(value);
+        Integer index = constantIndices.get("D" + bits);
+        if (index != null) {
+            return index;
+        }
+        try {
+            constants.writeByte(CONSTANT_DOUBLE);
+            constants.writeLong(bits);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        //Doubles take up two entries in the constant pool
+        return addConstant("D" + bits, 2);
+    }
+
+    private int addConstant(String key, int size) {
+        int index = constantCount;
+        constantCount += size;
+        if (constantCount > 0xFFFF) {
+            throw new IllegalStateException("Constant pool is too large");
+        }
+        constantIndices.put(key, index);
+        return index;
+    }
+
+    private static String internalName(String binaryName) {
+        return binaryName.replace('.', '/');
+    }
+
+    /**
+     * The body of a method. Tracks the depth of the operand stack as instructions are added so that max_stack can be
+     * written out.
+     */
+    static class Code {
+        private byte[] bytes = new byte[256];
+        private int length = 0;
+        private int stack = 0, maxStack = 0;
+        private int maxLocals;
+
+        /**
+         * Creates an empty method body that uses the given number of local variable slots.
+         *
+         * @param maxLocals
+         */
+        Code(int maxLocals) {
+            setMaxLocals(maxLocals);
+        }
+
+        void setMaxLocals(int maxLocals) {
+            if (maxLocals > 0xFFFF) {
+                throw new IllegalStateException("Too many local variables");
+            }
+            this.maxLocals = maxLocals;
+        }
+
+        void op(int opcode) {
+            u1(opcode);
+        }
+
+        void u1(int value) {
+            if (length == bytes.length) {
+                //Methods are limited to 64KB of code
+                if (length >= 0x10000) {
+                    throw new IllegalStateException("Method is too large");
+                }
+                byte[] larger = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, larger, 0, length);
+                bytes = larger;
+            }
+            bytes[length++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        /**
+         * Adds an instruction with a local variable index operand, using the wide form if necessary.
+         *
+         * @param opcode
+         * @param local
+         */
+        void local(int opcode, int local) {
+            if (local > 0xFF) {
+                op(WIDE);
+                op(opcode);
+                u2(local);
+            }
+            else {
+                op(opcode);
+                u1(local);
+            }
+        }
+
+        /**
+         * Adds an instruction that pushes the given int.
+         *
+         * @param value
+         */
+        void intConstant(int value) {
+            if (value >= -1 && value <= 5) {
+                op(ICONST_0 + value);
+            }
+            else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                op(BIPUSH);
+                u1(value);
+            }
+            else {
+                op(SIPUSH);
+                u2(value);
+            }
+            push(1);
+        }
+
+        /**
+         * Adds a branch instruction whose target is not known yet. The returned position must later be passed to
+         * bind().
+         *
+         * @param opcode
+         *
+         * @return
+         */
+        int branch(int opcode) {
+            int position = length;
+            op(opcode);
+            u2(0);
+            return position;
+        }
+
+        /**
+         * Makes the branch instruction at the given position jump to the current end of the code.
+         *
+         * @param branch
+         */
+        void bind(int branch) {
+            int offset = length - branch;
+            if (offset > Short.MAX_VALUE) {
+                throw new IllegalStateException("Branch is too far");
+            }
+            bytes[branch + 1] = (byte) (offset >> 8);
+            bytes[branch + 2] = (byte) offset;
+        }
+
+        /**
+         * Records that the given number of stack slots were pushed.
+         *
+         * @param slots
+         */
+        void push(int slots) {
+            stack += slots;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        /**
+         * Records that the given number of stack slots were popped.
+         *
+         * @param slots
+         */
+        void pop(int slots) {
+            stack -= slots;
+        }
+    }
+
+    /**
+     * Defines a single generated class
+     */
+    private static class Loader extends ClassLoader {
+        Loader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String className, byte[] bytes) {
+            return defineClass(className, bytes, 0, bytes.length);
+        }
+    }
+}
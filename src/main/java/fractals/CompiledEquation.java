@@ -0,0 +1,20 @@
+package fractals;
+
+/**
+ * An Equation that has been compiled for fast evaluation. See Equation.compile().
+ */
+public interface CompiledEquation {
+    /**
+     * Evaluates the Equation for the given values of the variables.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param r
+     * @param g
+     * @param b
+     *
+     * @return
+     */
+    double evaluate(double x, double y, double z, double r, double g, double b);
+}
@@ -1,163 +1,155 @@
 package fractals;
 
-import de.congrace.exp4j.*;
-
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
-import java.util.Stack;
 
 /**
- * Representation of an equation involving x and y. Uses the EXP4J library to convert an infix representation of the
- * equation:
+ * Representation of an equation involving x and y. The infix representation of the equation:
  * x*sin(y+1)
- * into a postfix representation:
- * x sin y 1 + *
- *
- * This postfix expression is easy to convert to a binary expression tree.
+ * is parsed by ExpressionParser directly into an expression tree, encoded in post-order as:
+ * x y 1 + sin *
  */
 public class Equation implements Serializable {
-    //Determines the chance of mutating each constant for a call to mutate()
-    //0 = no chance to mutate
-    //1 = every constant is mutated
-    private static final double MUTATE_CHANCE = 0.25;
+    //The encoded trees of the Equations that are a single variable, from x to b. FlatTrees are never modified, so
+    // every such Equation shares one of these.
+    private static final FlatTree[] VARIABLES = new FlatTree[FlatTree.B - FlatTree.X + 1];
+
+    static {
+        for (byte op = FlatTree.X; op <= FlatTree.B; op++) {
+            FlatTree.Builder builder = new FlatTree.Builder();
+            builder.add(op, 0);
+            VARIABLES[op - FlatTree.X] = builder.build();
+        }
+    }
 
-    //Determines the range in which constants can be altered:
-    //If a constant is zero, after mutation it can be in the range:
-    //[-MUTATE_RANGE,MUTATE_RANGE]
-    private static final double MUTATE_RANGE = 0.5;
+    //Defines whether expression trees are simplified after every cross(), mutate(), and introduce()
+    private static final boolean SIMPLIFY = true;
+
+    //The system properties that limit how large cross() and introduce() may grow an expression tree, for example:
+    // -Dfractals.tree.nodes=100
+    public static final String MAX_DEPTH_PROPERTY = "fractals.tree.depth";
+    public static final String MAX_NODES_PROPERTY = "fractals.tree.nodes";
+
+    //The largest height and number of Nodes of expression trees created by genetic operations. Trees that are
+    // already larger, such as ones typed in by the user, are not grown any further.
+    private static final int MAX_DEPTH = Integer.getInteger(MAX_DEPTH_PROPERTY, 12);
+    private static final int MAX_NODES = Integer.getInteger(MAX_NODES_PROPERTY, 64);
 
     //The infix representation of the expression
     private String expression;
-    //The root of the expression tree
-    private Node root;
+    //The expression tree encoded in flat arrays. This is the form of the tree that is copied, edited, compiled, and
+    // saved.
+    private FlatTree tree;
+    //The expression tree produced by the last genetic operation before it was simplified, or null if simplifying did
+    // not change it
+    private FlatTree unsimplified;
+    //The root of the expression tree as linked Nodes. This is only built when it is asked for.
+    private transient Node root;
     //The list of all Nodes in the tree
-    private ArrayList<Node> nodes = new ArrayList<>();
+    private transient ArrayList<Node> nodes;
     //The list of all leaves in the tree
-    private ArrayList<Node> leaves = new ArrayList<>();
+    private transient ArrayList<Node> leaves;
+    //The compiled form of the expression tree. It is created by compile() and discarded whenever the tree changes.
+    private transient volatile CompiledEquation compiled;
 
     /**
-     * Creates an Equation Object from a given infix expression.
+     * Creates an Equation Object from a given infix expression. See ExpressionParser for the syntax.
      *
      * @param expression
+     *
+     * @throws ExpressionParseException if the expression is not valid
      */
     public Equation(String expression) {
         this.expression = expression;
+        tree = ExpressionParser.parse(expression);
+    }
 
-        try {
-            //Conditional function
-            CustomFunction conditionalFunction = new CustomFunction("if", 3) {
-                public double applyFunction(double[] values) {
-                    if (values[0] >= 0) {
-                        return values[1];
-                    }
-                    else {
-                        return values[2];
-                    }
-                }
-            };
-            //Boolean operator
-            CustomOperator greaterThan = new CustomOperator(">", true, 10, 2) {
-                @Override
-                public double applyOperation(double[] values) {
-                    if (values[0] > values[1]) {
-                        return 1.0;
-                    }
-                    return 0.0;
-                }
-            };
-
-            //Turn the infix expression into a postfix expression using the EXP4J library
-            Calculable calc = new ExpressionBuilder(expression)
-                    .withVariableNames("x", "y", "z", "r", "g", "b").withOperation(greaterThan).withCustomFunction
-                            (conditionalFunction).build();
-            String postfixExpression = calc.getExpression();
-
-            //Get an array of the individual components of the postfix expression
-            String arr[] = postfixExpression.split(" ");
-
-            //The stack that will be used to build the expression tree
-            Stack<Node> stack = new Stack<>();
-
-            //Loop through each component of the postfix expression. A component can be either a number, variable,
-            // or operator
-            for (int i = 0; i < arr.length; i++) {
-                /*
-                EXP4J represents negatives using the apostrophe:
-                "-5" becomes ["5", "'"]
-                Therefore, if you reach an apostrophe, pop off the last component from the stack and negate it
-                to create an expression tree with negatives and not apostrophes.
-                 */
-                if (arr[i].equals("'")) {
-                    Node n = stack.pop();
-                    n.setValue("-" + n.getValue());
-                    stack.push(n);
-                    continue;
-                }
+    /**
+     * Creates an Equation from an already encoded expression tree.
+     *
+     * @param tree
+     * @param expression
+     * @param compiled
+     */
+    private Equation(FlatTree tree, String expression, CompiledEquation compiled) {
+        this.tree = tree;
+        this.expression = expression;
+        this.compiled = compiled;
+    }
 
-                //Create a Node representing the component currently being looked at
-                Node n = new Node(arr[i]);
+    /**
+     * Traverses the expression using pre-order to create a list of all Nodes in the expression tree.
+     *
+     * Call this after editing the Nodes of the tree directly so that the Equation picks up the changes.
+     */
+    public void trace() {
+        //Start new lists of Nodes to prevent duplicates
+        nodes = new ArrayList<>();
+        leaves = new ArrayList<>();
+        trace(getRoot());
 
-                //If the component is not an operator, we can just push it onto the stack
-                if (!n.isOperator()) {
-                    stack.push(n);
-                }
-                else if (n.isTernaryOperator()) {
-                    //Ternary operators operators have left, middle, and right children.
-                    Node right = stack.pop();
-                    Node left = stack.pop();
-                    Node middle = stack.pop();
-
-                    n.setLeft(left);
-                    n.setRight(right);
-                    n.setMiddle(middle);
-                    left.setParent(n);
-                    right.setParent(n);
-                    middle.setParent(n);
-
-                    stack.push(n);
-                }
-                else if (n.isBinaryOperator()) {
-                    //Binary operators (+-*/ ...) have left and right children.
-                    Node right = stack.pop();
-                    Node left = stack.pop();
+        //Bring the flat arrays up to date with the Nodes
+        tree = FlatTree.fromNode(root);
+        unsimplified = null;
+        compiled = null;
+    }
 
-                    n.setLeft(left);
-                    n.setRight(right);
-                    left.setParent(n);
-                    right.setParent(n);
+    /**
+     * Replaces the expression tree with the given encoded tree. The linked Nodes are rebuilt the next time they are
+     * needed.
+     *
+     * @param newTree
+     */
+    private void setTree(FlatTree newTree) {
+        tree = newTree;
+        unsimplified = null;
+        root = null;
+        nodes = null;
+        leaves = null;
+        compiled = null;
+        updateExpression();
+    }
 
-                    stack.push(n);
-                }
-                else {
-                    //Unary operators (sin cos tan...) have only one child. We define single children to be the right
-                    // child of a Node.
-                    Node right = stack.pop();
-                    n.setRight(right);
-                    right.setParent(n);
-
-                    stack.push(n);
-                }
-            }
-            //The root of the expression tree is the last Node on the stack after all components have been examined
-            root = stack.pop();
+    /**
+     * Replaces the expression tree with the result of a genetic operation, simplified if SIMPLIFY is set.
+     *
+     * @param newTree
+     */
+    private void setEvolvedTree(FlatTree newTree) {
+        if (SIMPLIFY) {
+            setTree(newTree);
+            simplify();
+        }
+        else {
+            setTree(newTree);
+        }
+    }
 
-            //Create a list of all Nodes in the expression tree
-            trace();
-        } catch (UnparsableExpressionException | InvalidCustomFunctionException | UnknownFunctionException e) {
-            e.printStackTrace();
+    /**
+     * Simplifies the expression tree by folding constants, removing operations that do not change their operand, and
+     * removing if branches that can never be taken. See Simplifier for the rules. The tree from before simplifying is
+     * kept and can be retrieved with getUnsimplified().
+     */
+    public void simplify() {
+        FlatTree original = tree;
+        FlatTree simplified = Simplifier.simplify(original);
+        if (simplified != original) {
+            setTree(simplified);
+            unsimplified = original;
         }
     }
 
     /**
-     * Traverses the expression using pre-order to create a list of all Nodes in the expression tree
+     * Returns the Equation as it was produced by the last genetic operation, before it was simplified. If simplifying
+     * did not change the Equation, a copy of the current Equation is returned.
+     *
+     * @return
      */
-    public void trace() {
-        //Clear the current lists of Nodes to prevent duplicates
-        nodes.clear();
-        leaves.clear();
-        trace(root);
+    public Equation getUnsimplified() {
+        if (unsimplified == null) {
+            return clone();
+        }
+        return fromTree(unsimplified);
     }
 
     /**
@@ -194,638 +186,631 @@ public class Equation implements Serializable {
     }
 
     /**
-     * Returns a randomly generated equation in the general form of the Clifford Attractors
+     * Evaluates the Equation at the given point by walking the expression tree.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param r
+     * @param g
+     * @param b
      *
      * @return
      */
-    public static Equation generateRandomXEquation() {
-        double a, c;
-
-        //The ranges for the constants defined by Clifford
-        a = randomRange(-2, 2);
-        c = randomRange(-2, 2);
-
-        return new Equation("sin( " + a + " * y ) + " + c + " * cos( " + a
-                + " * x )");
+    public double evaluate(double x, double y, double z, double r, double g, double b) {
+        return tree.evaluate(x, y, z, r, g, b);
     }
 
     /**
-     * Returns a randomly generated equation in the general form of the Clifford Attractors
+     * Returns the Equation compiled to JVM bytecode. Use this instead of evaluate() when the Equation is evaluated
+     * many times, such as when rendering.
+     *
+     * The compiled form is cached until the expression tree is changed by cross(), mutate(), or introduce().
      *
      * @return
      */
-    public static Equation generateRandomYEquation() {
-        double b, d;
-
-        //The ranges for the constants defined by Clifford
-        b = randomRange(-2, 2);
-        d = randomRange(-2, 2);
-
-        return new Equation("sin( " + b + " * y ) + " + d + " * cos( " + b
-                + " * x )");
+    public CompiledEquation compile() {
+        CompiledEquation result = compiled;
+        if (result == null) {
+            result = EquationCompiler.compile(tree);
+            compiled = result;
+        }
+        return result;
     }
 
     /**
-     * Returns a randomly generated equation in the general form of the Clifford Attractors
+     * Returns the expression tree encoded in flat arrays
      *
      * @return
      */
-    public static Equation generateRandomZEquation() {
-        double a, b;
-
-        //The ranges for the constants defined by Clifford
-        a = randomRange(-2, 2);
-        b = randomRange(-2, 2);
-
-        return new Equation(a + " * x + " + b + " * y");
+    FlatTree getTree() {
+        return tree;
     }
 
     /**
-     * Returns a random Node from the expression tree.
-     *
-     * If there is only one Node in the expression tree, that single Node is returned.
-     * Otherwise, every Node in the expression tree except the root Node has an equal chance of being selected.
+     * Returns the root of the expression tree, building the linked Nodes from the flat arrays if necessary.
      *
      * @return
      */
-    public Node getRandomNode() {
-        //If there is only one Node in the tree, return it
-        if (nodes.size() == 1) {
-            return nodes.get(0);
+    Node getRoot() {
+        if (root == null) {
+            root = tree.toNode();
+            nodes = new ArrayList<>();
+            leaves = new ArrayList<>();
+            trace(root);
         }
-        //Otherwise, pick a random Node excluding the root Node
-        return nodes.get((int) (Math.random() * (nodes.size() - 1) + 1));
+        return root;
     }
 
     /**
-     * Crosses the expression trees of the current Equation and the one in the parameter. The original Equations are
-     * modified.
+     * Returns the number of Nodes in the expression tree
      *
-     * @param other
+     * @return
      */
-    public void cross(Equation other) {
-        //Pick random Nodes from both equations to serve as the roots of the cross
-        Node swap = getRandomNode();
-        Node swapOther = other.getRandomNode();
-
-        //Get the parents of the swap Nodes in order
-        Node parent, parentOther;
-        parent = swap.getParent();
-        parentOther = swapOther.getParent();
-
-        //Determine if the swap Nodes are the left, middle, or right children of their parents in order to update the
-        // left/middle/right pointers of the parents. If they do not have parents, this is unnecessary.
-        if (parent != null) {
-            boolean isLeft, isMiddle;
-            isLeft = (swap == parent.getLeft());
-            isMiddle = (swap == parent.getMiddle());
-
-            if (isLeft) {
-                parent.setLeft(swapOther);
-            }
-            else if (isMiddle) {
-                parent.setMiddle(swapOther);
-            }
-            else {
-                parent.setRight(swapOther);
-            }
-        }
-        if (parentOther != null) {
-            boolean otherIsLeft, otherIsMiddle;
-            otherIsLeft = (swapOther == parentOther.getLeft());
-            otherIsMiddle = (swapOther == parentOther.getMiddle());
-
-            if (otherIsLeft) {
-                parentOther.setLeft(swap);
-            }
-            else if (otherIsMiddle) {
-                parentOther.setMiddle(swap);
-            }
-            else {
-                parentOther.setRight(swap);
-            }
-        }
-
-        //Swap the parents of the two swap Nodes
-        swap.setParent(parentOther);
-        swapOther.setParent(parent);
-
-        //Update the list of Nodes in the expression tree
-        trace();
-        //Update the infix expression of the modified expression tree
-        updateExpression();
+    public int getSize() {
+        return tree.size();
     }
 
     /**
-     * Returns a copy of the current Equation. Modifications to the returned Equation will not affect the original
-     * Equation.
+     * Returns the height of the expression tree. An Equation that is a single constant or variable has a depth of 1.
      *
      * @return
      */
-    public Equation clone() {
-        Equation eq = new Equation(new String(expression));
-        eq.root = root.clone();
-        eq.trace();
-        return eq;
+    public int getDepth() {
+        return tree.height();
     }
 
     /**
-     * Returns a random double in the range [start,end)
-     *
-     * @param start
-     * @param end
+     * Returns the largest height that cross() and introduce() may grow an expression tree to
      *
      * @return
      */
-    public static double randomRange(double start, double end) {
-        return Math.random() * (end - start) + start;
+    public static int getMaxDepth() {
+        return MAX_DEPTH;
     }
 
     /**
-     * Prints out the infix expression for the current Equation
+     * Returns the largest number of Nodes that cross() and introduce() may grow an expression tree to
      *
      * @return
      */
-    public String toString() {
-        return expression;
+    public static int getMaxNodes() {
+        return MAX_NODES;
     }
 
     /**
-     * Updates the infix expression by traversing the expression tree
+     * Returns a randomly generated equation in the general form of the Clifford Attractors
+     *
+     * @return
      */
-    public void updateExpression() {
-        expression = updateExpression(root);
+    public static Equation generateRandomXEquation() {
+        return generateRandomXEquation(Randoms.current());
     }
 
     /**
-     * Helper method used by updateExpression()
+     * Returns a randomly generated equation in the general form of the Clifford Attractors, whose constants are drawn
+     * from the given random source
      *
-     * @param current
+     * @param random
      *
      * @return
      */
-    private String updateExpression(Node current) {
-        //Stop when we have gone past a leaf
-        if (current == null) {
-            return "";
-        }
+    static Equation generateRandomXEquation(RandomSource random) {
+        double a, c;
 
-        //Unary operators are in the form: abc( ... )
-        if (current.isUnaryOperator()) {
-            return current + "(" + updateExpression(current.getRight()) + ")";
-        }
-        //Ternary operators are in the form:
-        // if ((expA)(expB)(expC))
-        else if (current.isTernaryOperator()) {
-            return current + "((" + updateExpression(current.getMiddle()) + " > 0)" + "(" + updateExpression(current
-                    .getLeft()) + ")(" + updateExpression(current.getRight()) + "))";
-        }
-        else {
-            //Binary operators, constants, and variables are in the form ... abc ...
-            return updateExpression(current.getLeft()) + current
-                    + updateExpression(current.getRight());
-        }
+        //The ranges for the constants defined by Clifford
+        a = random.nextDouble(-2, 2);
+        c = random.nextDouble(-2, 2);
+
+        return clifford(a, c);
     }
 
     /**
-     * Prints an in-order traversal of the expression tree
+     * Returns a randomly generated equation in the general form of the Clifford Attractors
      *
-     * @param current
+     * @return
      */
-    public void printTree(Node current) {
-        if (current == null) {
-            return;
-        }
-
-        printTree(current.getMiddle());
-        printTree(current.getLeft());
-        printTree(current.getRight());
+    public static Equation generateRandomYEquation() {
+        return generateRandomYEquation(Randoms.current());
     }
 
-	/*public String toPostfixString() {
-        return toPostfixString(root);
-	}
+    /**
+     * Returns a randomly generated equation in the general form of the Clifford Attractors, whose constants are drawn
+     * from the given random source
+     *
+     * @param random
+     *
+     * @return
+     */
+    static Equation generateRandomYEquation(RandomSource random) {
+        double b, d;
 
-	public String toPostfixString(Node current) {
-		if (current == null)
-			return "";
+        //The ranges for the constants defined by Clifford
+        b = random.nextDouble(-2, 2);
+        d = random.nextDouble(-2, 2);
 
-		return toPostfixString(current.getLeft()) + current + " "
-				+ toPostfixString(current.getRight());
-	}*/
+        return clifford(b, d);
+    }
 
     /**
-     * Mutates the current Equation by altering the constants of the expression tree. Each constant in the expression
-     * tree is visited and has a random chance of being altered by a set amount.
+     * Returns a randomly generated equation in the general form of the Clifford Attractors
+     *
+     * @return
      */
-    public void mutate() {
-        mutate(root);
-        trace();
-        updateExpression();
+    public static Equation generateRandomZEquation() {
+        return generateRandomZEquation(Randoms.current());
     }
 
     /**
-     * Helper method used by mutate()
+     * Returns a randomly generated equation in the general form of the Clifford Attractors, whose constants are drawn
+     * from the given random source
      *
-     * @param n
+     * @param random
+     *
+     * @return
      */
-    public void mutate(Node n) {
-        //Don't mutate non-existent Nodes
-        if (n == null) {
-            return;
-        }
+    static Equation generateRandomZEquation(RandomSource random) {
+        double a, b;
 
-        //Only mutate constants and only with a random chance
-        if (n.isNumber() && Math.random() < MUTATE_CHANCE) {
-            //Compute a random amount to alter the constant
-            double change = randomRange(-MUTATE_RANGE, MUTATE_RANGE);
-            double val = Double.parseDouble(n.getValue()) + change;
-            //Make sure the final value does not get too far away from zero as this can produce lots of sparse fractals
-            val %= 2;
-            //Update the Node's values
-            n.setValue("" + val);
-        }
+        //The ranges for the constants defined by Clifford
+        a = random.nextDouble(-2, 2);
+        b = random.nextDouble(-2, 2);
 
-        //Keep working down the expression tree to examine all of the constants
-        mutate(n.getLeft());
-        mutate(n.getRight());
+        //a * x + b * y, built in post-order
+        FlatTree.Builder builder = new FlatTree.Builder();
+        builder.add(FlatTree.CONST, a);
+        builder.add(FlatTree.X, 0);
+        builder.add(FlatTree.MUL, 0);
+        builder.add(FlatTree.CONST, b);
+        builder.add(FlatTree.Y, 0);
+        builder.add(FlatTree.MUL, 0);
+        builder.add(FlatTree.ADD, 0);
+        return fromTree(builder.build());
     }
 
     /**
-     * Introduces a new subtree into the expression tree of the current Equation.
+     * Returns the Equation sin(a * y) + c * cos(a * x). The tree is built directly instead of being parsed from text.
+     *
+     * @param a
+     * @param c
+     *
+     * @return
      */
-    public void introduce() {
-        //Pick a random Node to serve as the "root" of the introduced subtree
-        Node subtreeRoot = leaves.get((int) (Math.random() * leaves.size()));
-        introduce(subtreeRoot);
-
-        //Update the Equation to reflect the new changes
-        trace();
-        updateExpression();
+    private static Equation clifford(double a, double c) {
+        FlatTree.Builder builder = new FlatTree.Builder();
+        builder.add(FlatTree.CONST, a);
+        builder.add(FlatTree.Y, 0);
+        builder.add(FlatTree.MUL, 0);
+        builder.add(FlatTree.SIN, 0);
+        builder.add(FlatTree.CONST, c);
+        builder.add(FlatTree.CONST, a);
+        builder.add(FlatTree.X, 0);
+        builder.add(FlatTree.MUL, 0);
+        builder.add(FlatTree.COS, 0);
+        builder.add(FlatTree.MUL, 0);
+        builder.add(FlatTree.ADD, 0);
+        return fromTree(builder.build());
     }
 
     /**
-     * Helper method used by introduce().
+     * Returns an Equation that is just the given variable, such as the default color Equations r = x.
      *
-     * @param n
+     * @param op one of the variable operations, FlatTree.X through FlatTree.B
+     *
+     * @return
      */
-    public void introduce(Node n) {
-        //Don't perform introduction on non-existent Nodes
-        if (n == null) {
-            return;
-        }
-
-        //Create a new expression tree
-        Node subtree = createRandomExpressionTree();
-
-        //Change the given Node into the created subtree
-        n.setValue(subtree.getValue());
-        n.setLeft(subtree.getLeft());
-        n.setRight(subtree.getRight());
-        n.setMiddle(subtree.getMiddle());
+    static Equation variable(byte op) {
+        return fromTree(VARIABLES[op - FlatTree.X]);
     }
 
     /**
-     * Creates a random expression tree and returns the root Node of that tree.
+     * Returns an Equation for an already encoded tree
+     *
+     * @param tree
      *
      * @return
      */
-    private Node createRandomExpressionTree() {
-        //Create a random Node to serve as the root of the new expression tree
-        Node treeRoot = createRandomNode();
-        //Fill out the expression tree
-        fillExpressionTree(treeRoot);
-
-        return treeRoot;
+    private static Equation fromTree(FlatTree tree) {
+        return new Equation(tree, tree.toInfix(), null);
     }
 
     /**
-     * Fills out the expression tree rooted at the given Node. This method checks whether the given Node is an operator
-     * and if so will create random nodes to serve as the children to that Node. This method will then recursively fill
-     * out the expression trees for each of the children until only constants are at the leaves.
+     * Returns a random Node from the expression tree.
      *
-     * @param n
+     * If there is only one Node in the expression tree, that single Node is returned.
+     * Otherwise, every Node in the expression tree except the root Node has an equal chance of being selected.
+     *
+     * @return
      */
-    private void fillExpressionTree(Node n) {
-        //Don't modify a null Node
-        if (n == null) {
-            return;
-        }
-
-        if (n.isTernaryOperator()) {
-            //Create random Nodes for the left, middle, and right children
-            Node left = createRandomNode();
-            left.setParent(n);
-            n.setLeft(left);
-            Node right = createRandomNode();
-            right.setParent(n);
-            n.setRight(right);
-            Node middle = createRandomNode();
-            middle.setParent(n);
-            n.setMiddle(middle);
-
-            //Fill each of the left, middle, and right subtrees
-            fillExpressionTree(n.getLeft());
-            fillExpressionTree(n.getRight());
-            fillExpressionTree(n.getMiddle());
-        }
-        else if (n.isBinaryOperator()) {
-            //Create random Nodes for the left and right children
-            Node left = createRandomNode();
-            left.setParent(n);
-            n.setLeft(left);
-            Node right = createRandomNode();
-            right.setParent(n);
-            n.setRight(right);
-
-            //Fill each of the left and right subtrees
-            fillExpressionTree(n.getLeft());
-            fillExpressionTree(n.getRight());
-        }
-        else if (n.isUnaryOperator()) {
-            //Unary operators have only a single child which is the right Node
-            Node right = createRandomNode();
-            right.setParent(n);
-            n.setRight(right);
-            fillExpressionTree(n.getRight());
+    public Node getRandomNode() {
+        getRoot();
+        //If there is only one Node in the tree, return it
+        if (nodes.size() == 1) {
+            return nodes.get(0);
         }
-        //If the Node is just a constant we no longer need to do any filling
+        //Otherwise, pick a random Node excluding the root Node
+        return nodes.get(Randoms.current().nextInt(nodes.size() - 1) + 1);
     }
 
     /**
-     * Creates a Node with a random value.
+     * Crosses the expression trees of the current Equation and the one in the parameter. The original Equations are
+     * modified.
      *
-     * @return
+     * A random Node is picked from each expression tree, and the subtrees rooted at those Nodes are swapped. Only
+     * pairs of subtrees that keep both trees within the depth and size limits are picked.
+     *
+     * @param other
      */
-    private Node createRandomNode() {
-        return new Node(Node.getRandomValue());
+    public void cross(Equation other) {
+        cross(other, Randoms.current());
     }
-}
-
-/**
- * Represents a single node in the expression tree of an equation
- */
-class Node implements Serializable {
-    //The chance of choosing an operator as a random node
-    private static final double OPERATOR_CHANCE = 0.35;
-
-    //Represents the value of the node
-    private String value;
-
-    //Represents the links for the current node
-    private Node left, right, middle, parent;
-
-    //Defines the set of unary operators supported by Node
-    private static final HashSet<String> unaryOperators = new HashSet<>(
-            Arrays.asList("sin", "cos", "abs"));
-    //Defines the set of binary operators supported by Node
-    private static final HashSet<String> binaryOperators = new HashSet<>(
-            Arrays.asList("*", "+", "-", "/", "^"));
-    //Defines the set of ternary operators supported by Node
-    private static final HashSet<String> ternaryOperators = new HashSet<>(Arrays.asList("if"));
 
     /**
-     * Creates a Node with the given value
+     * Crosses the expression trees of the current Equation and the one in the parameter, picking the Nodes with the
+     * given random source. The original Equations are modified.
      *
-     * @param value
+     * @param other
+     * @param random
      */
-    public Node(String value) {
-        this.value = value;
+    void cross(Equation other, RandomSource random) {
+        //Pick random Nodes from both equations to serve as the roots of the cross
+        int[] swap = getRandomNodes(tree, other.tree, random);
+
+        //Swap the subtrees. Both new trees are built from the original trees before either Equation is updated.
+        FlatTree crossed = tree.replace(swap[0], other.tree, swap[1]);
+        FlatTree otherCrossed = other.tree.replace(swap[1], tree, swap[0]);
+        setEvolvedTree(crossed);
+        other.setEvolvedTree(otherCrossed);
     }
 
     /**
-     * Returns a random value. This value can be either an operator or a constant.
+     * Returns the indices of a random pair of Nodes, one from each tree, whose subtrees can be swapped without growing
+     * either tree past the depth and size limits. Every such pair has an equal chance of being picked. The roots are
+     * only picked if they are the only Node of their tree.
+     *
+     * Swapping two leaves never grows a tree, so there is always at least one pair to pick from.
+     *
+     * @param a
+     * @param b
+     * @param random
      *
      * @return
      */
-    public static String getRandomValue() {
-        //Create a list of all recognized operators
-        ArrayList<String> operators = new ArrayList<>();
-        operators.addAll(unaryOperators);
-        operators.addAll(binaryOperators);
-        operators.addAll(ternaryOperators);
-
-        //Create a list of possible leaf values
-        ArrayList<String> leaves = new ArrayList<>();
-        //A constant between -2 to 2
-        leaves.add("" + Equation.randomRange(-2, 2));
-        //The position
-        leaves.add("x");
-        leaves.add("y");
-        leaves.add("z");
-        //The color values
-        leaves.add("r");
-        leaves.add("b");
-        leaves.add("g");
-
-        //Determine if the method will return an operator or a constant
-        if (Math.random() < OPERATOR_CHANCE) {
-            return operators.get((int) (Math.random() * operators.size()));
+    private static int[] getRandomNodes(FlatTree a, FlatTree b, RandomSource random) {
+        int[] heightsA = a.heights(), depthsA = a.depths();
+        int[] heightsB = b.heights(), depthsB = b.depths();
+        int maxNodesA = Math.max(MAX_NODES, a.size()), maxDepthA = Math.max(MAX_DEPTH, heightsA[a.root()]);
+        int maxNodesB = Math.max(MAX_NODES, b.size()), maxDepthB = Math.max(MAX_DEPTH, heightsB[b.root()]);
+
+        //The root is the last Node of a tree
+        int candidatesA = a.size() == 1 ? 1 : a.size() - 1;
+        int candidatesB = b.size() == 1 ? 1 : b.size() - 1;
+
+        //Count the pairs that fit, then find the picked one by counting again, so that nothing is allocated
+        int count = 0;
+        for (int i = 0; i < candidatesA; i++) {
+            for (int j = 0; j < candidatesB; j++) {
+                if (fits(a, b, i, j, heightsA, depthsA, heightsB, depthsB, maxNodesA, maxDepthA, maxNodesB,
+                        maxDepthB)) {
+                    count++;
+                }
+            }
         }
-        else {
-            return "" + leaves.get((int) (Math.random() * leaves.size()));
+        int remaining = random.nextInt(count);
+        for (int i = 0; i < candidatesA; i++) {
+            for (int j = 0; j < candidatesB; j++) {
+                if (fits(a, b, i, j, heightsA, depthsA, heightsB, depthsB, maxNodesA, maxDepthA, maxNodesB,
+                        maxDepthB) && remaining-- == 0) {
+                    return new int[]{i, j};
+                }
+            }
         }
+        throw new IllegalStateException("No pair of subtrees fits");
     }
 
     /**
-     * Returns whether the Node represents a mathematical constant
+     * Returns whether the subtrees rooted at Node i of tree a and Node j of tree b can be swapped without growing either
+     * tree past the given limits
      *
      * @return
      */
-    public boolean isNumber() {
-        //Try parsing the value as a double
-        try {
-            Double.parseDouble(value);
-        } catch (Exception e) {
-            //Failure to parse the value as a double implies that the value is not a constant
-            return false;
-        }
-        return true;
+    private static boolean fits(FlatTree a, FlatTree b, int i, int j, int[] heightsA, int[] depthsA, int[] heightsB,
+                                int[] depthsB, int maxNodesA, int maxDepthA, int maxNodesB, int maxDepthB) {
+        return a.size() - a.size(i) + b.size(j) <= maxNodesA && b.size() - b.size(j) + a.size(i) <= maxNodesB &&
+                depthsA[i] + heightsB[j] <= maxDepthA && depthsB[j] + heightsA[i] <= maxDepthB;
     }
 
     /**
-     * Returns the parent of the current Node
+     * Returns a copy of the current Equation. Modifications to the returned Equation will not affect the original
+     * Equation.
+     *
+     * The encoded tree is never modified in place, so the copy shares it with the current Equation.
      *
      * @return
      */
-    public Node getParent() {
-        return parent;
+    public Equation clone() {
+        Equation copy = new Equation(tree, expression, compiled);
+        copy.unsimplified = unsimplified;
+        return copy;
     }
 
     /**
-     * Sets the parent pointer of the current Node to the given Node. The child pointers of the current Node are not
-     * altered.
-     * The old parent Node is returned.
+     * Returns a random double in the range [start,end)
      *
-     * @param parent
+     * @param start
+     * @param end
      *
      * @return
      */
-    public Node setParent(Node parent) {
-        Node ans = this.parent;
-        this.parent = parent;
-        return ans;
+    public static double randomRange(double start, double end) {
+        return Randoms.current().nextDouble(start, end);
     }
 
     /**
-     * Returns whether the current Node has no children
+     * Prints out the infix expression for the current Equation
      *
      * @return
      */
-    public boolean isLeaf() {
-        return left == null && right == null && middle == null;
+    public String toString() {
+        return expression;
     }
 
     /**
-     * Returns the value of the current Node
+     * Returns a hash of the structure of the expression tree. Equations with the same operations and constants in the
+     * same places have the same hash. The hash is cached per subtree, so after crossing or introduction only the path
+     * to the changed subtree is hashed again.
+     *
+     * Edits made directly to the Nodes returned by getRoot() are only seen once trace() has been called.
      *
      * @return
      */
-    public String getValue() {
-        return value;
+    @Override
+    public int hashCode() {
+        return tree.hashCode();
     }
 
     /**
-     * Sets the value of the current Node to the given value
+     * Returns whether the given Object is an Equation with the same expression tree as the current Equation.
      *
-     * @param value
+     * @param o
+     *
+     * @return
      */
-    public void setValue(String value) {
-        this.value = value;
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Equation && tree.equals(((Equation) o).tree);
     }
 
     /**
-     * Sets the left child pointer for the current Node to the given Node.
-     * Returns the old left child Node.
-     *
-     * @param newNode
-     *
-     * @return
+     * Updates the infix expression by traversing the expression tree
      */
-    public Node setLeft(Node newNode) {
-        Node oldNode = left;
-        left = newNode;
-        return oldNode;
+    public void updateExpression() {
+        expression = tree.toInfix();
     }
 
     /**
-     * Returns whether the current Node represents an operator
+     * Prints an in-order traversal of the expression tree
      *
-     * @return
+     * @param current
      */
-    public boolean isOperator() {
-        return isUnaryOperator() || isBinaryOperator() || isTernaryOperator();
+    public void printTree(Node current) {
+        if (current == null) {
+            return;
+        }
+
+        printTree(current.getMiddle());
+        printTree(current.getLeft());
+        printTree(current.getRight());
     }
 
+	/*public String toPostfixString() {
+        return toPostfixString(root);
+	}
+
+	public String toPostfixString(Node current) {
+		if (current == null)
+			return "";
+
+		return toPostfixString(current.getLeft()) + current + " "
+				+ toPostfixString(current.getRight());
+	}*/
+
     /**
-     * Returns whether the current Node represents a unary operator
-     *
-     * @return
+     * Mutates the current Equation with the settings of EvolutionConfig.DEFAULT.
      */
-    public boolean isUnaryOperator() {
-        return unaryOperators.contains(value);
+    public void mutate() {
+        mutate(EvolutionConfig.DEFAULT);
     }
 
     /**
-     * Returns whether the current Node represents a binary operator
+     * Mutates the current Equation by altering the constants of the expression tree. Each constant in the expression
+     * tree is visited and has the mutate chance of the given config of being altered by up to its mutate range.
      *
-     * @return
+     * @param config
      */
-    public boolean isBinaryOperator() {
-        return binaryOperators.contains(value);
+    public void mutate(EvolutionConfig config) {
+        mutate(config, Randoms.current());
     }
 
     /**
-     * Returns whether the current Node represents a ternary operator
+     * Mutates the current Equation like mutate(EvolutionConfig), drawing every random choice from the given random
+     * source.
      *
-     * @return
+     * @param config
+     * @param random
      */
-    public boolean isTernaryOperator() {
-        return ternaryOperators.contains(value);
+    void mutate(EvolutionConfig config, RandomSource random) {
+        double[] constants = tree.copyConstants();
+        for (int i = 0; i < tree.size(); i++) {
+            //Only mutate constants and only with a random chance
+            if (tree.op(i) == FlatTree.CONST && random.nextDouble() < config.getMutateChance()) {
+                constants[i] = mutateConstant(constants[i], config.getMutateRange(), random);
+            }
+        }
+        setEvolvedTree(tree.withConstants(constants));
     }
 
     /**
-     * Sets the right child pointer of the current Node to the given Node.
-     * The old right child Node is returned.
-     *
-     * @param newNode
+     * Mutates the constants of the subtree rooted at the given Node. Call trace() afterwards to update the Equation.
      *
-     * @return
+     * @param n
      */
-    public Node setRight(Node newNode) {
-        Node oldNode = right;
-        right = newNode;
-        return oldNode;
+    public void mutate(Node n) {
+        //Don't mutate non-existent Nodes
+        if (n == null) {
+            return;
+        }
+
+        //Only mutate constants and only with a random chance
+        EvolutionConfig config = EvolutionConfig.DEFAULT;
+        if (n.isNumber() && Randoms.current().nextDouble() < config.getMutateChance()) {
+            n.setValue("" + mutateConstant(Double.parseDouble(n.getValue()), config.getMutateRange(),
+                    Randoms.current()));
+        }
+
+        //Keep working down the expression tree to examine all of the constants
+        mutate(n.getLeft());
+        mutate(n.getRight());
+        mutate(n.getMiddle());
     }
 
     /**
-     * Sets the middle child pointer of the current Node to the given Node.
-     * The old middle child Node is returned.
+     * Returns the given constant altered by a random amount of at most the given range
      *
-     * @param newNode
+     * @param value
+     * @param range
+     * @param random
      *
      * @return
      */
-    public Node setMiddle(Node newNode) {
-        Node oldNode = middle;
-        middle = newNode;
-        return oldNode;
+    private static double mutateConstant(double value, double range, RandomSource random) {
+        //Compute a random amount to alter the constant
+        double val = value + random.nextDouble(-range, range);
+        //Make sure the final value does not get too far away from zero as this can produce lots of sparse fractals
+        return val % 2;
     }
 
     /**
-     * Returns the left child of the current Node
-     *
-     * @return
+     * Introduces a new subtree into the expression tree of the current Equation with the settings of
+     * EvolutionConfig.DEFAULT.
      */
-    public Node getLeft() {
-        return left;
+    public void introduce() {
+        introduce(EvolutionConfig.DEFAULT);
     }
 
     /**
-     * Returns the right child of the current Node
+     * Introduces a new subtree into the expression tree of the current Equation. The new subtree is kept small enough
+     * for the tree to stay within the depth and size limits, and its Nodes are operators with the operator chance of
+     * the given config.
      *
-     * @return
+     * @param config
      */
-    public Node getRight() {
-        return right;
+    public void introduce(EvolutionConfig config) {
+        introduce(config, Randoms.current());
     }
 
     /**
-     * Returns the middle child of the current Node
+     * Introduces a new subtree into the expression tree of the current Equation like introduce(EvolutionConfig),
+     * drawing every random choice from the given random source.
      *
-     * @return
+     * @param config
+     * @param random
      */
-    public Node getMiddle() {
-        return middle;
+    void introduce(EvolutionConfig config, RandomSource random) {
+        //Pick a random leaf to serve as the "root" of the introduced subtree
+        int leafCount = 0;
+        for (int i = 0; i < tree.size(); i++) {
+            if (FlatTree.arity(tree.op(i)) == 0) {
+                leafCount++;
+            }
+        }
+        int leaf = -1;
+        for (int remaining = random.nextInt(leafCount); remaining >= 0; remaining--) {
+            do {
+                leaf++;
+            } while (FlatTree.arity(tree.op(leaf)) != 0);
+        }
+
+        //Replace the leaf with a new expression tree that fits in the room left by the limits
+        int maxDepth = Math.max(MAX_DEPTH, tree.height()) - tree.depths()[leaf];
+        int maxNodes = Math.max(MAX_NODES, tree.size()) - tree.size() + 1;
+        FlatTree subtree = createRandomExpressionTree(maxDepth, maxNodes, config.getOperatorChance(), random);
+        setEvolvedTree(tree.replace(leaf, subtree, subtree.root()));
     }
 
-    public String toString() {
-        return value;
+    /**
+     * Replaces the given Node with a new random subtree. Call trace() afterwards to update the Equation.
+     *
+     * @param n
+     */
+    public void introduce(Node n) {
+        //Don't perform introduction on non-existent Nodes
+        if (n == null) {
+            return;
+        }
+
+        //Create a new expression tree
+        Node subtree = createRandomExpressionTree(MAX_DEPTH, MAX_NODES, EvolutionConfig.DEFAULT.getOperatorChance(),
+                Randoms.current()).toNode();
+
+        //Change the given Node into the created subtree
+        n.setValue(subtree.getValue());
+        n.setLeft(subtree.getLeft());
+        n.setRight(subtree.getRight());
+        n.setMiddle(subtree.getMiddle());
+
+        //The children of the subtree now belong to the given Node
+        for (Node child : new Node[]{n.getLeft(), n.getRight(), n.getMiddle()}) {
+            if (child != null) {
+                child.setParent(n);
+            }
+        }
     }
 
     /**
-     * Returns a cloned copy of the current Node. Any changes made to a cloned copy will not affect the original Node.
+     * Creates a random expression tree with at most the given height and number of Nodes.
      *
-     * Cloning a Node will also clone all of its descendants, thus creating a cloned subtree rooted at the current
-     * Node.
+     * @param maxDepth
+     * @param maxNodes
+     * @param operatorChance the chance that a Node is an operator
+     * @param random
      *
      * @return
      */
-    public Node clone() {
-        Node n = new Node(value);
-        //Clone the left, middle, and right subtrees if they exist
-        if (left != null) {
-            n.left = left.clone();
-            n.left.setParent(n);
-        }
-        if (right != null) {
-            n.right = right.clone();
-            n.right.setParent(n);
+    private static FlatTree createRandomExpressionTree(int maxDepth, int maxNodes, double operatorChance,
+                                                       RandomSource random) {
+        FlatTree.Builder builder = new FlatTree.Builder();
+        fillExpressionTree(builder, random, maxDepth, maxNodes, operatorChance);
+        return builder.build();
+    }
+
+    /**
+     * Adds a random subtree to the given builder. A random Node is created, and if it is an operator, random subtrees
+     * are recursively created to serve as its children until only constants are at the leaves. Operators that would
+     * not leave room for their children within the given height and number of Nodes are replaced by leaves.
+     *
+     * @param builder
+     * @param random
+     * @param maxDepth
+     * @param maxNodes
+     * @param operatorChance
+     */
+    private static void fillExpressionTree(FlatTree.Builder builder, RandomSource random, int maxDepth,
+                                           int maxNodes, double operatorChance) {
+        byte op = Node.getRandomOperation(random, operatorChance);
+        int arity = FlatTree.arity(op);
+        if (arity > 0 && (maxDepth <= 1 || maxNodes <= arity)) {
+            op = Node.getRandomLeaf(random);
+            arity = 0;
         }
-        if (middle != null) {
-            n.middle = middle.clone();
-            n.middle.setParent(n);
+
+        //Children come before their parent in the encoded tree. Each child leaves room for one Node for every child
+        // after it and for the parent itself.
+        int end = builder.size() + maxNodes - 1;
+        for (int i = 0; i < arity; i++) {
+            fillExpressionTree(builder, random, maxDepth - 1, end - builder.size() - (arity - 1 - i),
+                    operatorChance);
         }
-        return n;
+        builder.add(op, op == FlatTree.CONST ? Node.getRandomConstant(random) : 0);
     }
 }
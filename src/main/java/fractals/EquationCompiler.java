@@ -0,0 +1,170 @@
+package fractals;
+
+import static fractals.ClassFileWriter.*;
+
+/**
+ * Compiles the encoded expression tree of an Equation into a JVM class implementing CompiledEquation. The generated
+ * evaluate() method works only with primitive doubles held in local variables and on the operand stack, so evaluating
+ * it involves no boxing, no String comparisons, and no parsing of constants.
+ *
+ * If the tree cannot be compiled (for example because the generated method would be larger than the JVM allows),
+ * an interpreter that walks the encoded tree is returned instead.
+ */
+class EquationCompiler {
+    //The descriptor of CompiledEquation.evaluate()
+    private static final String DESCRIPTOR = "(DDDDDD)D";
+
+    //The local variable slot holding the first variable (x). Slot 0 holds "this" and each double takes two slots.
+    static final int FIRST_VARIABLE_SLOT = 1;
+
+    private final ClassFileWriter writer = new ClassFileWriter("fractals.GeneratedEquation", CompiledEquation.class);
+    private final ClassFileWriter.Code code = new ClassFileWriter.Code(FIRST_VARIABLE_SLOT + 12);
+
+    private EquationCompiler() {
+    }
+
+    /**
+     * Compiles the given expression tree.
+     *
+     * @param tree
+     *
+     * @return
+     */
+    static CompiledEquation compile(final FlatTree tree) {
+        try {
+            EquationCompiler compiler = new EquationCompiler();
+            compiler.emit(tree, tree.root());
+            compiler.code.op(DRETURN);
+            compiler.writer.addMethod("evaluate", DESCRIPTOR, compiler.code);
+            return compiler.writer.newInstance(CompiledEquation.class);
+        } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+            //Fall back to walking the tree
+            return new CompiledEquation() {
+                @Override
+                public double evaluate(double x, double y, double z, double r, double g, double b) {
+                    return tree.evaluate(x, y, z, r, g, b);
+                }
+            };
+        }
+    }
+
+    /**
+     * Adds code that leaves the value of the subtree rooted at the given Node on top of the operand stack.
+     *
+     * @param tree
+     * @param node
+     */
+    private void emit(FlatTree tree, int node) {
+        byte op = tree.op(node);
+        if (op == FlatTree.CONST) {
+            emitConstant(tree.constant(node));
+            return;
+        }
+        if (FlatTree.isVariable(op) || FlatTree.isNegatedVariable(op)) {
+            code.local(DLOAD, FIRST_VARIABLE_SLOT + 2 * FlatTree.variable(op));
+            code.push(2);
+            if (FlatTree.isNegatedVariable(op)) {
+                code.op(DNEG);
+            }
+            return;
+        }
+
+        switch (op) {
+            case FlatTree.SIN:
+                emit(tree, node - 1);
+                emitMath("sin", "(D)D", 0);
+                return;
+            case FlatTree.COS:
+                emit(tree, node - 1);
+                emitMath("cos", "(D)D", 0);
+                return;
+            case FlatTree.ABS:
+                emit(tree, node - 1);
+                emitMath("abs", "(D)D", 0);
+                return;
+            case FlatTree.IF:
+                emitConditional(tree, node);
+                return;
+        }
+
+        //Binary operators
+        emit(tree, tree.child(node, 0));
+        emit(tree, node - 1);
+        switch (op) {
+            case FlatTree.ADD:
+                code.op(DADD);
+                code.pop(2);
+                break;
+            case FlatTree.SUB:
+                code.op(DSUB);
+                code.pop(2);
+                break;
+            case FlatTree.MUL:
+                code.op(DMUL);
+                code.pop(2);
+                break;
+            case FlatTree.DIV:
+                code.op(DDIV);
+                code.pop(2);
+                break;
+            default:
+                emitMath("pow", "(DD)D", 2);
+                break;
+        }
+    }
+
+    private void emitConstant(double constant) {
+        //Positive zero and one have their own instructions
+        if (Double.doubleToRawLongBits(constant) == 0L) {
+            code.op(DCONST_0);
+        }
+        else if (constant == 1.0) {
+            code.op(DCONST_1);
+        }
+        else {
+            code.op(LDC2_W);
+            code.u2(writer.doubleConstant(constant));
+        }
+        code.push(2);
+    }
+
+    /**
+     * Adds a call to a static method of java.lang.Math that returns a double.
+     *
+     * @param method
+     * @param descriptor
+     * @param poppedSlots the number of stack slots used by the arguments beyond the first double
+     */
+    private void emitMath(String method, String descriptor, int poppedSlots) {
+        code.op(INVOKESTATIC);
+        code.u2(writer.methodConstant("java/lang/Math", method, descriptor));
+        code.pop(poppedSlots);
+    }
+
+    /**
+     * Adds code for an if Node: the second child is used when the first child (the condition) is greater than zero
+     * and the third child otherwise. Only the chosen child is evaluated.
+     *
+     * @param tree
+     * @param node
+     */
+    private void emitConditional(FlatTree tree, int node) {
+        emit(tree, tree.child(node, 0));
+        code.op(DCONST_0);
+        code.push(2);
+        //dcmpl pushes -1 for NaN, so NaN conditions choose the third child just like FlatTree.evaluate() does
+        code.op(DCMPL);
+        code.pop(3);
+        int toElse = code.branch(IFLE);
+        code.pop(1);
+
+        emit(tree, tree.child(node, 1));
+        int toEnd = code.branch(GOTO);
+        //Only one of the two children is on the stack at the end
+        code.pop(2);
+
+        code.bind(toElse);
+        emit(tree, node - 1);
+        code.bind(toEnd);
+    }
+}
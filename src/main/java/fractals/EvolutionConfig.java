@@ -0,0 +1,152 @@
+package fractals;
+
+import java.io.Serializable;
+
+/**
+ * The settings of the genetic operations: which Equations of a Fractal are evolved, how constants are mutated, and how
+ * likely new Nodes are to be operators.
+ *
+ * An EvolutionConfig never changes, so a single snapshot can be taken from the window once per generation and shared
+ * by operations running on any thread.
+ */
+public final class EvolutionConfig implements Serializable {
+    private static final long serialVersionUID = -2904184416720318543L;
+
+    //The settings the program has always used: the x, y, and z Equations are evolved, every constant has a 25% chance
+    // of being mutated by up to 0.5, and 35% of new Nodes are operators
+    public static final EvolutionConfig DEFAULT = new Builder().build();
+
+    private final boolean evolveX, evolveY, evolveZ, evolveColor;
+    private final double mutateChance, mutateRange, operatorChance;
+
+    private EvolutionConfig(Builder builder) {
+        evolveX = builder.evolveX;
+        evolveY = builder.evolveY;
+        evolveZ = builder.evolveZ;
+        evolveColor = builder.evolveColor;
+        mutateChance = builder.mutateChance;
+        mutateRange = builder.mutateRange;
+        operatorChance = builder.operatorChance;
+    }
+
+    public boolean isEvolveX() {
+        return evolveX;
+    }
+
+    public boolean isEvolveY() {
+        return evolveY;
+    }
+
+    public boolean isEvolveZ() {
+        return evolveZ;
+    }
+
+    /**
+     * Returns whether the r, g, and b Equations are evolved
+     *
+     * @return
+     */
+    public boolean isEvolveColor() {
+        return evolveColor;
+    }
+
+    /**
+     * Returns the chance of mutating each constant when an Equation is mutated: 0 mutates no constants and 1 mutates
+     * every constant.
+     *
+     * @return
+     */
+    public double getMutateChance() {
+        return mutateChance;
+    }
+
+    /**
+     * Returns the largest amount a constant is altered by when it is mutated. A constant of zero can be anywhere in
+     * [-range, range] after mutation.
+     *
+     * @return
+     */
+    public double getMutateRange() {
+        return mutateRange;
+    }
+
+    /**
+     * Returns the chance that a Node of a new random subtree is an operator rather than a constant or variable
+     *
+     * @return
+     */
+    public double getOperatorChance() {
+        return operatorChance;
+    }
+
+    /**
+     * Returns a Builder that starts from the settings of the current EvolutionConfig
+     *
+     * @return
+     */
+    public Builder toBuilder() {
+        return new Builder().setEvolved(evolveX, evolveY, evolveZ, evolveColor).setMutateChance(mutateChance)
+                .setMutateRange(mutateRange).setOperatorChance(operatorChance);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("evolve x %b, y %b, z %b, color %b; mutate chance %.2f, range %.2f; operator chance %.2f",
+                evolveX, evolveY, evolveZ, evolveColor, mutateChance, mutateRange, operatorChance);
+    }
+
+    /**
+     * Creates EvolutionConfigs. A new Builder starts from the settings of DEFAULT.
+     */
+    public static final class Builder {
+        private boolean evolveX = true, evolveY = true, evolveZ = true, evolveColor = false;
+        private double mutateChance = 0.25, mutateRange = 0.5, operatorChance = 0.35;
+
+        /**
+         * Sets which Equations are evolved
+         *
+         * @param x
+         * @param y
+         * @param z
+         * @param color whether the r, g, and b Equations are evolved
+         *
+         * @return
+         */
+        public Builder setEvolved(boolean x, boolean y, boolean z, boolean color) {
+            evolveX = x;
+            evolveY = y;
+            evolveZ = z;
+            evolveColor = color;
+            return this;
+        }
+
+        public Builder setMutateChance(double chance) {
+            mutateChance = probability(chance, "Mutate chance");
+            return this;
+        }
+
+        public Builder setMutateRange(double range) {
+            if (!(range >= 0) || Double.isInfinite(range)) {
+                throw new IllegalArgumentException("Mutate range must be non-negative: " + range);
+            }
+            mutateRange = range;
+            return this;
+        }
+
+        public Builder setOperatorChance(double chance) {
+            operatorChance = probability(chance, "Operator chance");
+            return this;
+        }
+
+        private static double probability(double chance, String name) {
+            if (!(chance >= 0 && chance <= 1)) {
+                throw new IllegalArgumentException(name + " must be between 0 and 1: " + chance);
+            }
+            return chance;
+        }
+
+        public EvolutionConfig build() {
+            return new EvolutionConfig(this);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package fractals;
+
+/**
+ * Thrown when the infix expression of an Equation cannot be parsed. The position of the problem is reported as the
+ * index of the character in the expression, counting from 0.
+ */
+public class ExpressionParseException extends IllegalArgumentException {
+    private static final long serialVersionUID = -4140970693756070231L;
+
+    private final String expression;
+    private final int position;
+
+    public ExpressionParseException(String message, String expression, int position) {
+        super(message + " at position " + position + " in: " + expression);
+        this.expression = expression;
+        this.position = position;
+    }
+
+    public String getExpression() {
+        return expression;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
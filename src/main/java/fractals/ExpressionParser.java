@@ -0,0 +1,350 @@
+package fractals;
+
+/**
+ * Parses infix expressions directly into encoded expression trees.
+ *
+ * The grammar, from the loosest to the tightest binding:
+ * condition  = sum [ ">" sum ]
+ * sum        = product { ("+" | "-") product }
+ * product    = power { ("*" | "/") power }
+ * power      = unary [ "^" power ]
+ * unary      = "-" unary | primary
+ * primary    = number | variable | ("sin" | "cos" | "abs") "(" sum ")" | if | "(" sum ")"
+ * if         = "if" "(" condition "," sum "," sum ")" | "if" "(" "(" condition ")" "(" sum ")" "(" sum ")" ")"
+ *
+ * The variables are x, y, z, r, g, and b. The second form of if is the one FlatTree.toInfix() writes out, so every
+ * written out tree can be read back. A minus sign in front of an operand negates just that operand, so -x^2 is
+ * (-x)^2, which is also how the tree writes out negative constants and variables.
+ *
+ * Conditions are only allowed as the first argument of if, or as the group that starts the second form, and only at
+ * the top of it: "if((x > y) * 2, a, b)" is an error. An if takes its first branch if its condition is greater than
+ * zero, so "a > b" is encoded as a - b, and "a > 0" as just a. Note that the exp4j parser used before took the first
+ * branch if the condition was at least zero, so an if whose condition is exactly zero now takes its second branch.
+ *
+ * Nodes are added to a FlatTree.Builder as soon as they are read, so no tokens or intermediate trees are created.
+ */
+final class ExpressionParser {
+    private final String expression;
+    private final FlatTree.Builder builder = new FlatTree.Builder();
+    //The index of the next character to read
+    private int position = 0;
+
+    private ExpressionParser(String expression) {
+        this.expression = expression;
+    }
+
+    /**
+     * Parses the given infix expression.
+     *
+     * @param expression
+     *
+     * @return
+     *
+     * @throws ExpressionParseException if the expression is not valid
+     */
+    static FlatTree parse(String expression) {
+        if (expression == null) {
+            throw new ExpressionParseException("Missing expression", "null", 0);
+        }
+        ExpressionParser parser = new ExpressionParser(expression);
+        parser.parseSum();
+        parser.skipSpaces();
+        if (parser.position < expression.length()) {
+            throw parser.unexpected();
+        }
+        return parser.builder.build();
+    }
+
+    private void parseCondition() {
+        parseSum();
+        if (accept('>')) {
+            parseSum();
+            //a > 0 is just a, and otherwise a > b is encoded as a - b
+            int last = builder.size() - 1;
+            if (builder.op(last) == FlatTree.CONST && builder.constant(last) == 0) {
+                builder.truncate(last);
+            }
+            else {
+                builder.add(FlatTree.SUB, 0);
+            }
+        }
+    }
+
+    private void parseSum() {
+        parseProduct();
+        while (true) {
+            if (accept('+')) {
+                parseProduct();
+                builder.add(FlatTree.ADD, 0);
+            }
+            else if (accept('-')) {
+                parseProduct();
+                builder.add(FlatTree.SUB, 0);
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void parseProduct() {
+        parsePower();
+        while (true) {
+            if (accept('*')) {
+                parsePower();
+                builder.add(FlatTree.MUL, 0);
+            }
+            else if (accept('/')) {
+                parsePower();
+                builder.add(FlatTree.DIV, 0);
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void parsePower() {
+        parseUnary();
+        //Powers are right associative: a^b^c is a^(b^c)
+        if (accept('^')) {
+            parsePower();
+            builder.add(FlatTree.POW, 0);
+        }
+    }
+
+    private void parseUnary() {
+        if (!accept('-')) {
+            parsePrimary();
+            return;
+        }
+        parseUnary();
+
+        //Constants and variables are negated in place, and other operands are multiplied by -1
+        int last = builder.size() - 1;
+        byte op = builder.op(last);
+        if (op == FlatTree.CONST) {
+            double value = builder.constant(last);
+            builder.truncate(last);
+            builder.add(FlatTree.CONST, -value);
+        }
+        else if (FlatTree.isVariable(op) || FlatTree.isNegatedVariable(op)) {
+            builder.truncate(last);
+            builder.add((byte) (FlatTree.isVariable(op) ? op - FlatTree.X + FlatTree.NEG_X :
+                    op - FlatTree.NEG_X + FlatTree.X), 0);
+        }
+        else {
+            builder.add(FlatTree.CONST, -1);
+            builder.add(FlatTree.MUL, 0);
+        }
+    }
+
+    private void parsePrimary() {
+        skipSpaces();
+        if (position == expression.length()) {
+            throw error("Unexpected end of expression");
+        }
+
+        char c = expression.charAt(position);
+        if (c == '(') {
+            position++;
+            parseSum();
+            expect(')');
+        }
+        else if (Character.isDigit(c) || c == '.') {
+            parseNumber();
+        }
+        else if (Character.isLetter(c)) {
+            parseName();
+        }
+        else {
+            throw unexpected();
+        }
+    }
+
+    private void parseNumber() {
+        int start = position;
+        while (position < expression.length() && isNumberCharacter(expression.charAt(position), start)) {
+            position++;
+        }
+        try {
+            builder.add(FlatTree.CONST, Double.parseDouble(expression.substring(start, position)));
+        } catch (NumberFormatException e) {
+            throw new ExpressionParseException("Invalid number '" + expression.substring(start, position) + "'",
+                    expression, start);
+        }
+    }
+
+    /**
+     * Returns whether the given character continues a number that starts at the given index. Numbers can be written
+     * in the form Double.toString() uses, such as 1.5E-4.
+     *
+     * @param c
+     * @param start
+     *
+     * @return
+     */
+    private boolean isNumberCharacter(char c, int start) {
+        if (Character.isDigit(c) || c == '.' || c == 'E' || c == 'e') {
+            return true;
+        }
+        //A sign belongs to the number only directly after its exponent
+        return (c == '-' || c == '+') && position > start && (expression.charAt(position - 1) == 'E' ||
+                expression.charAt(position - 1) == 'e');
+    }
+
+    private void parseName() {
+        int start = position;
+        while (position < expression.length() && Character.isLetter(expression.charAt(position))) {
+            position++;
+        }
+        String name = expression.substring(start, position);
+        switch (name) {
+            case "x":
+                builder.add(FlatTree.X, 0);
+                return;
+            case "y":
+                builder.add(FlatTree.Y, 0);
+                return;
+            case "z":
+                builder.add(FlatTree.Z, 0);
+                return;
+            case "r":
+                builder.add(FlatTree.R, 0);
+                return;
+            case "g":
+                builder.add(FlatTree.G, 0);
+                return;
+            case "b":
+                builder.add(FlatTree.B, 0);
+                return;
+            case "sin":
+                parseArgument();
+                builder.add(FlatTree.SIN, 0);
+                return;
+            case "cos":
+                parseArgument();
+                builder.add(FlatTree.COS, 0);
+                return;
+            case "abs":
+                parseArgument();
+                builder.add(FlatTree.ABS, 0);
+                return;
+            case "if":
+                parseIf();
+                return;
+            default:
+                throw new ExpressionParseException("Unknown name '" + name + "'", expression, start);
+        }
+    }
+
+    /**
+     * Parses a sum in parentheses, such as the argument of a function. Conditions are not allowed in it.
+     */
+    private void parseArgument() {
+        expect('(');
+        parseSum();
+        expect(')');
+    }
+
+    private void parseIf() {
+        expect('(');
+        if (isGroupedCondition()) {
+            //if((condition)(a)(b))
+            expect('(');
+            parseCondition();
+            expect(')');
+            parseArgument();
+            parseArgument();
+        }
+        else {
+            //if(condition, a, b)
+            parseCondition();
+            expect(',');
+            parseSum();
+            expect(',');
+            parseSum();
+        }
+        expect(')');
+        builder.add(FlatTree.IF, 0);
+    }
+
+    /**
+     * Returns whether the next characters start the second form of if, in which the condition is a group directly
+     * followed by the group of the first branch. A condition of the first form may also start with a group, as in
+     * "if((x + 1) * y > 0, a, b)", but that group is never directly followed by another one.
+     *
+     * @return
+     */
+    private boolean isGroupedCondition() {
+        skipSpaces();
+        if (position == expression.length() || expression.charAt(position) != '(') {
+            return false;
+        }
+        //Find the end of the group. Parentheses only ever group, so they can be matched without parsing.
+        int depth = 0, end = position;
+        for (; end < expression.length(); end++) {
+            char c = expression.charAt(end);
+            if (c == '(') {
+                depth++;
+            }
+            else if (c == ')' && --depth == 0) {
+                break;
+            }
+        }
+        end++;
+        while (end < expression.length() && Character.isWhitespace(expression.charAt(end))) {
+            end++;
+        }
+        return end < expression.length() && expression.charAt(end) == '(';
+    }
+
+    private void skipSpaces() {
+        while (position < expression.length() && Character.isWhitespace(expression.charAt(position))) {
+            position++;
+        }
+    }
+
+    /**
+     * Skips the given character if it is the next one after any spaces.
+     *
+     * @param c
+     *
+     * @return whether the character was skipped
+     */
+    private boolean accept(char c) {
+        skipSpaces();
+        if (position < expression.length() && expression.charAt(position) == c) {
+            position++;
+            return true;
+        }
+        return false;
+    }
+
+    private void expect(char c) {
+        if (!accept(c)) {
+            if (position < expression.length() && expression.charAt(position) == '>') {
+                throw unexpected();
+            }
+            throw error(position == expression.length() ? "Expected '" + c + "' but the expression ended" :
+                    "Expected '" + c + "'");
+        }
+    }
+
+    /**
+     * Returns the error for a character that cannot appear where it is.
+     *
+     * @return
+     */
+    private ExpressionParseException unexpected() {
+        char c = expression.charAt(position);
+        if (c == '>') {
+            return error("'>' is only allowed in the condition of if");
+        }
+        return error("Unexpected '" + c + "'");
+    }
+
+    private ExpressionParseException error(String message) {
+        return new ExpressionParseException(message, expression, position);
+    }
+}
@@ -0,0 +1,31 @@
+package fractals;
+
+/**
+ * Rates the image of a Fractal so that Fractals can be selected without a user, as in batch evolution. Larger values
+ * are better.
+ */
+public interface Fitness {
+    //Rates images by ImageScore.getValue(), which grows with both their coverage and their entropy. Sparse images are
+    // rated below every image that is not sparse.
+    Fitness SCORE = new Fitness() {
+        @Override
+        public double evaluate(Fractal fractal, ImageScore score) {
+            return score.isSparse() ? -1 : score.getValue();
+        }
+
+        @Override
+        public String toString() {
+            return "score";
+        }
+    };
+
+    /**
+     * Returns the fitness of the given Fractal, whose image was measured by the given score.
+     *
+     * @param fractal
+     * @param score
+     *
+     * @return
+     */
+    double evaluate(Fractal fractal, ImageScore score);
+}
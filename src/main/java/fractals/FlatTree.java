@@ -0,0 +1,720 @@
+package fractals;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Stack;
+
+/**
+ * A compact encoding of an expression tree in three parallel arrays.
+ *
+ * The Nodes are stored in post-order, so the subtree rooted at any Node is a contiguous range of the arrays that ends
+ * at that Node. For the Node at index i:
+ * ops[i] is the operation (or variable, or constant) of the Node,
+ * constants[i] is the value of the Node if it is a constant,
+ * starts[i] is the index of the first Node in its subtree.
+ *
+ * The last child of Node i is at index i-1, and each earlier child ends right before the start of the child that
+ * follows it. The root is the last Node.
+ *
+ * A FlatTree is never modified once it has been built. Editing operations return a new FlatTree, so FlatTrees can be
+ * freely shared between Equations.
+ *
+ * Two FlatTrees are equal if they have the same operations and constants. The structural hash of every subtree is
+ * computed once and cached, and replace() carries the hashes of the unchanged subtrees over to the new tree, so only
+ * the hashes along the path to the replaced subtree are computed again.
+ */
+final class FlatTree implements Serializable {
+    private static final long serialVersionUID = -6481671105168674620L;
+
+    //Operations. Leaves come first, followed by unary, binary, and ternary operators.
+    static final byte CONST = 0;
+    static final byte X = 1, Y = 2, Z = 3, R = 4, G = 5, B = 6;
+    static final byte NEG_X = 7, NEG_Y = 8, NEG_Z = 9, NEG_R = 10, NEG_G = 11, NEG_B = 12;
+    static final byte SIN = 13, COS = 14, ABS = 15;
+    static final byte ADD = 16, SUB = 17, MUL = 18, DIV = 19, POW = 20;
+    static final byte IF = 21;
+
+    //The Node value of every operation
+    private static final String[] NAMES = {null, "x", "y", "z", "r", "g", "b", "-x", "-y", "-z", "-r", "-g", "-b",
+            "sin", "cos", "abs", "+", "-", "*", "/", "^", "if"};
+
+    private final byte[] ops;
+    private final double[] constants;
+    private final int[] starts;
+    //The structural hash of the subtree rooted at every Node, or null if it has not been computed yet
+    private transient volatile int[] hashes;
+
+    private FlatTree(byte[] ops, double[] constants, int[] starts) {
+        this.ops = ops;
+        this.constants = constants;
+        this.starts = starts;
+    }
+
+    /**
+     * Returns the number of children Nodes with the given operation have.
+     *
+     * @param op
+     *
+     * @return
+     */
+    static int arity(byte op) {
+        if (op >= IF) {
+            return 3;
+        }
+        if (op >= ADD) {
+            return 2;
+        }
+        if (op >= SIN) {
+            return 1;
+        }
+        return 0;
+    }
+
+    /**
+     * Returns the operation represented by the value of a Node. Values that are not operators or variables must be
+     * constants.
+     *
+     * @param value
+     *
+     * @return
+     *
+     * @throws IllegalArgumentException if the value is not recognized
+     */
+    static byte opcode(String value) {
+        for (byte op = X; op < NAMES.length; op++) {
+            if (NAMES[op].equals(value)) {
+                return op;
+            }
+        }
+        try {
+            Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Unsupported token in expression: " + value);
+        }
+        return CONST;
+    }
+
+    /**
+     * Returns the Node value of the given operation. Constants have no fixed value, so null is returned for them.
+     *
+     * @param op
+     *
+     * @return
+     */
+    static String name(byte op) {
+        return NAMES[op];
+    }
+
+    /**
+     * Returns the index of the variable (0 for x through 5 for b) read by a variable or negated variable leaf.
+     *
+     * @param op
+     *
+     * @return
+     */
+    static int variable(byte op) {
+        return op >= NEG_X ? op - NEG_X : op - X;
+    }
+
+    static boolean isVariable(byte op) {
+        return op >= X && op <= B;
+    }
+
+    static boolean isNegatedVariable(byte op) {
+        return op >= NEG_X && op <= NEG_B;
+    }
+
+    int size() {
+        return ops.length;
+    }
+
+    int root() {
+        return ops.length - 1;
+    }
+
+    byte op(int node) {
+        return ops[node];
+    }
+
+    double constant(int node) {
+        return constants[node];
+    }
+
+    /**
+     * Returns the index of the first Node in the subtree rooted at the given Node.
+     *
+     * @param node
+     *
+     * @return
+     */
+    int start(int node) {
+        return starts[node];
+    }
+
+    /**
+     * Returns the given child of a Node. Children are numbered from 0 in the order they are stored: the operand of
+     * unary operators, the left and right operands of binary operators, and the condition, the value if the
+     * condition is greater than zero, and the value otherwise for if.
+     *
+     * @param node
+     * @param child
+     *
+     * @return
+     */
+    int child(int node, int child) {
+        int arity = arity(ops[node]);
+        int index = node - 1;
+        for (int i = arity - 1; i > child; i--) {
+            index = starts[index] - 1;
+        }
+        return index;
+    }
+
+    /**
+     * Returns the number of Nodes in the subtree rooted at the given Node.
+     *
+     * @param node
+     *
+     * @return
+     */
+    int size(int node) {
+        return node - starts[node] + 1;
+    }
+
+    /**
+     * Returns the height of the subtree rooted at every Node. Leaves have a height of 1.
+     *
+     * @return
+     */
+    int[] heights() {
+        int[] heights = new int[ops.length];
+        //Children come before their parents
+        for (int i = 0; i < ops.length; i++) {
+            int height = 0;
+            for (int k = 0; k < arity(ops[i]); k++) {
+                height = Math.max(height, heights[child(i, k)]);
+            }
+            heights[i] = height + 1;
+        }
+        return heights;
+    }
+
+    /**
+     * Returns the depth of every Node, which is the number of Nodes above it. The root has a depth of 0.
+     *
+     * @return
+     */
+    int[] depths() {
+        int[] depths = new int[ops.length];
+        //Parents come after their children
+        for (int i = root(); i >= 0; i--) {
+            for (int k = 0; k < arity(ops[i]); k++) {
+                depths[child(i, k)] = depths[i] + 1;
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * Returns the height of the tree
+     *
+     * @return
+     */
+    int height() {
+        return heights()[root()];
+    }
+
+    /**
+     * Returns whether any Node has the given operation
+     *
+     * @param op
+     *
+     * @return
+     */
+    boolean contains(byte op) {
+        for (byte b : ops) {
+            if (b == op) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns a copy of the constant values, indexed by Node
+     *
+     * @return
+     */
+    double[] copyConstants() {
+        return constants.clone();
+    }
+
+    /**
+     * Returns a tree with the same structure but with the given constant values.
+     *
+     * @param newConstants
+     *
+     * @return
+     */
+    FlatTree withConstants(double[] newConstants) {
+        return new FlatTree(ops, newConstants, starts);
+    }
+
+    /**
+     * Returns a tree in which the subtree rooted at the given Node is replaced by the subtree rooted at sourceNode in
+     * the source tree. The current tree and the source tree are unmodified.
+     *
+     * @param node
+     * @param source
+     * @param sourceNode
+     *
+     * @return
+     */
+    FlatTree replace(int node, FlatTree source, int sourceNode) {
+        int start = starts[node];
+        int sourceStart = source.starts[sourceNode];
+        int sourceLength = sourceNode - sourceStart + 1;
+        int delta = sourceLength - (node - start + 1);
+        int size = ops.length + delta;
+
+        byte[] newOps = new byte[size];
+        double[] newConstants = new double[size];
+        int[] newStarts = new int[size];
+
+        //Nodes before the replaced subtree are unchanged
+        System.arraycopy(ops, 0, newOps, 0, start);
+        System.arraycopy(constants, 0, newConstants, 0, start);
+        System.arraycopy(starts, 0, newStarts, 0, start);
+
+        //The inserted subtree keeps its shape but moves to a new position
+        System.arraycopy(source.ops, sourceStart, newOps, start, sourceLength);
+        System.arraycopy(source.constants, sourceStart, newConstants, start, sourceLength);
+        for (int i = 0; i < sourceLength; i++) {
+            newStarts[start + i] = source.starts[sourceStart + i] - sourceStart + start;
+        }
+
+        //Nodes after the replaced subtree move by delta. Ancestors of the replaced subtree still start at or before
+        // it, so only the starts of the other Nodes move.
+        int after = node + 1;
+        System.arraycopy(ops, after, newOps, after + delta, ops.length - after);
+        System.arraycopy(constants, after, newConstants, after + delta, ops.length - after);
+        for (int i = after; i < ops.length; i++) {
+            newStarts[i + delta] = starts[i] <= start ? starts[i] : starts[i] + delta;
+        }
+
+        FlatTree tree = new FlatTree(newOps, newConstants, newStarts);
+
+        //Only the hashes of the ancestors of the replaced subtree change
+        int[] oldHashes = hashes, sourceHashes = source.hashes;
+        if (oldHashes != null && sourceHashes != null) {
+            int[] newHashes = new int[size];
+            System.arraycopy(oldHashes, 0, newHashes, 0, start);
+            System.arraycopy(sourceHashes, sourceStart, newHashes, start, sourceLength);
+            System.arraycopy(oldHashes, after, newHashes, after + delta, ops.length - after);
+            for (int i = after; i < ops.length; i++) {
+                if (starts[i] <= start) {
+                    newHashes[i + delta] = tree.computeHash(i + delta, newHashes);
+                }
+            }
+            tree.hashes = newHashes;
+        }
+        return tree;
+    }
+
+    /**
+     * Returns the structural hash of the subtree rooted at the given Node.
+     *
+     * @param node
+     *
+     * @return
+     */
+    int hash(int node) {
+        int[] computed = hashes;
+        if (computed == null) {
+            //Children come before their parents, so a single pass computes every hash
+            computed = new int[ops.length];
+            for (int i = 0; i < ops.length; i++) {
+                computed[i] = computeHash(i, computed);
+            }
+            hashes = computed;
+        }
+        return computed[node];
+    }
+
+    /**
+     * Computes the hash of the given Node from its operation, its constant, and the hashes of its children.
+     *
+     * @param node
+     * @param childHashes the hashes of at least every child of the Node
+     *
+     * @return
+     */
+    private int computeHash(int node, int[] childHashes) {
+        byte op = ops[node];
+        int h = op;
+        if (op == CONST) {
+            long bits = Double.doubleToLongBits(constants[node]);
+            h = 31 * h + (int) (bits ^ (bits >>> 32));
+        }
+        for (int k = 0; k < arity(op); k++) {
+            h = 31 * h + childHashes[child(node, k)];
+        }
+
+        //Spread the bits (the MurmurHash3 finalizer) so that similar trees get unrelated hashes
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    @Override
+    public int hashCode() {
+        return hash(root());
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FlatTree)) {
+            return false;
+        }
+        FlatTree other = (FlatTree) o;
+        //The starts follow from the operations, so they do not need to be compared
+        return ops.length == other.ops.length && hashCode() == other.hashCode() && Arrays.equals(ops, other.ops) &&
+                Arrays.equals(constants, other.constants);
+    }
+
+    /**
+     * Evaluates the tree for the given values of the variables.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param r
+     * @param g
+     * @param b
+     *
+     * @return
+     */
+    double evaluate(double x, double y, double z, double r, double g, double b) {
+        return evaluate(root(), x, y, z, r, g, b);
+    }
+
+    /**
+     * Helper method used by evaluate()
+     */
+    private double evaluate(int node, double x, double y, double z, double r, double g, double b) {
+        switch (ops[node]) {
+            case CONST:
+                return constants[node];
+            case X:
+                return x;
+            case Y:
+                return y;
+            case Z:
+                return z;
+            case R:
+                return r;
+            case G:
+                return g;
+            case B:
+                return b;
+            case NEG_X:
+                return -x;
+            case NEG_Y:
+                return -y;
+            case NEG_Z:
+                return -z;
+            case NEG_R:
+                return -r;
+            case NEG_G:
+                return -g;
+            case NEG_B:
+                return -b;
+            case SIN:
+            case COS:
+            case ABS:
+                return apply(ops[node], evaluate(node - 1, x, y, z, r, g, b), 0);
+        }
+
+        if (ops[node] == IF) {
+            if (evaluate(child(node, 0), x, y, z, r, g, b) > 0) {
+                return evaluate(child(node, 1), x, y, z, r, g, b);
+            }
+            return evaluate(node - 1, x, y, z, r, g, b);
+        }
+
+        double left = evaluate(starts[node - 1] - 1, x, y, z, r, g, b);
+        double right = evaluate(node - 1, x, y, z, r, g, b);
+        return apply(ops[node], left, right);
+    }
+
+    /**
+     * Applies a unary or binary operation to the given operands. The right operand is ignored by unary operations.
+     *
+     * @param op
+     * @param left
+     * @param right
+     *
+     * @return
+     */
+    static double apply(byte op, double left, double right) {
+        switch (op) {
+            case SIN:
+                return Math.sin(left);
+            case COS:
+                return Math.cos(left);
+            case ABS:
+                return Math.abs(left);
+            case ADD:
+                return left + right;
+            case SUB:
+                return left - right;
+            case MUL:
+                return left * right;
+            case DIV:
+                return left / right;
+            case POW:
+                return Math.pow(left, right);
+            default:
+                throw new IllegalArgumentException("Not a unary or binary operation: " + op);
+        }
+    }
+
+    /**
+     * Returns the infix expression of the tree in the form understood by the C-Backend. Operands that are themselves
+     * binary operators are wrapped in parentheses so that the structure of the tree is kept.
+     *
+     * @return
+     */
+    String toInfix() {
+        StringBuilder builder = new StringBuilder();
+        appendInfix(builder, root());
+        return builder.toString();
+    }
+
+    /**
+     * Helper method used by toInfix()
+     *
+     * @param builder
+     * @param node
+     */
+    private void appendInfix(StringBuilder builder, int node) {
+        byte op = ops[node];
+        switch (arity(op)) {
+            case 0:
+                builder.append(op == CONST ? "" + constants[node] : NAMES[op]);
+                break;
+            //Unary operators are in the form: abc( ... )
+            case 1:
+                builder.append(NAMES[op]).append('(');
+                appendInfix(builder, node - 1);
+                builder.append(')');
+                break;
+            //Binary operators are in the form ... abc ...
+            case 2:
+                appendOperand(builder, starts[node - 1] - 1);
+                builder.append(NAMES[op]);
+                appendOperand(builder, node - 1);
+                break;
+            //Ternary operators are in the form: if ((expA > 0)(expB)(expC))
+            default:
+                builder.append(NAMES[op]).append("((");
+                appendInfix(builder, child(node, 0));
+                builder.append(" > 0)(");
+                appendInfix(builder, child(node, 1));
+                builder.append(")(");
+                appendInfix(builder, node - 1);
+                builder.append("))");
+                break;
+        }
+    }
+
+    private void appendOperand(StringBuilder builder, int node) {
+        if (arity(ops[node]) == 2) {
+            builder.append('(');
+            appendInfix(builder, node);
+            builder.append(')');
+        }
+        else {
+            appendInfix(builder, node);
+        }
+    }
+
+    /**
+     * Encodes the expression tree rooted at the given Node.
+     *
+     * @param root
+     *
+     * @return
+     *
+     * @throws IllegalArgumentException if the tree contains a value that is not supported
+     */
+    static FlatTree fromNode(Node root) {
+        Builder builder = new Builder();
+        builder.add(root);
+        return builder.build();
+    }
+
+    /**
+     * Builds a linked Node representation of the tree and returns its root.
+     *
+     * @return
+     */
+    Node toNode() {
+        Stack<Node> stack = new Stack<>();
+        for (int i = 0; i < ops.length; i++) {
+            byte op = ops[i];
+            Node n = new Node(op == CONST ? "" + constants[i] : NAMES[op]);
+            switch (arity(op)) {
+                case 1:
+                    n.setRight(stack.pop());
+                    break;
+                case 2:
+                    n.setRight(stack.pop());
+                    n.setLeft(stack.pop());
+                    break;
+                case 3:
+                    n.setRight(stack.pop());
+                    n.setLeft(stack.pop());
+                    n.setMiddle(stack.pop());
+                    break;
+            }
+            for (Node child : new Node[]{n.getLeft(), n.getRight(), n.getMiddle()}) {
+                if (child != null) {
+                    child.setParent(n);
+                }
+            }
+            stack.push(n);
+        }
+        return stack.pop();
+    }
+
+    /**
+     * Builds a FlatTree one Node at a time in post-order.
+     */
+    static class Builder {
+        private byte[] ops = new byte[16];
+        private double[] constants = new double[16];
+        private int[] starts = new int[16];
+        private int size = 0;
+
+        /**
+         * Adds a Node. Its children must be the most recently added subtrees.
+         *
+         * @param op
+         * @param constant
+         */
+        void add(byte op, double constant) {
+            if (size == ops.length) {
+                ops = Arrays.copyOf(ops, size * 2);
+                constants = Arrays.copyOf(constants, size * 2);
+                starts = Arrays.copyOf(starts, size * 2);
+            }
+
+            //The subtree starts where its first child starts
+            int start = size;
+            for (int i = 0; i < arity(op); i++) {
+                start = starts[start - 1];
+            }
+
+            ops[size] = op;
+            constants[size] = constant;
+            starts[size] = start;
+            size++;
+        }
+
+        /**
+         * Adds the subtree rooted at the given Node.
+         *
+         * @param n
+         */
+        void add(Node n) {
+            byte op = opcode(n.getValue());
+            switch (arity(op)) {
+                case 1:
+                    add(n.getRight());
+                    break;
+                case 2:
+                    add(n.getLeft());
+                    add(n.getRight());
+                    break;
+                case 3:
+                    add(n.getMiddle());
+                    add(n.getLeft());
+                    add(n.getRight());
+                    break;
+            }
+            add(op, op == CONST ? Double.parseDouble(n.getValue()) : 0);
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte op(int node) {
+            return ops[node];
+        }
+
+        double constant(int node) {
+            return constants[node];
+        }
+
+        /**
+         * Removes every Node from the given index on.
+         *
+         * @param newSize
+         */
+        void truncate(int newSize) {
+            size = newSize;
+        }
+
+        /**
+         * Moves the subtree rooted at the given Node so that it starts at the given index, and removes every Node
+         * after it. The subtree must not start before the index.
+         *
+         * @param node
+         * @param to
+         */
+        void keep(int node, int to) {
+            int start = starts[node];
+            int length = node - start + 1;
+            System.arraycopy(ops, start, ops, to, length);
+            System.arraycopy(constants, start, constants, to, length);
+            for (int i = 0; i < length; i++) {
+                starts[to + i] = starts[start + i] - start + to;
+            }
+            size = to + length;
+        }
+
+        /**
+         * Returns whether the subtrees rooted at the given Nodes have the same operations and constants.
+         *
+         * @param a
+         * @param b
+         *
+         * @return
+         */
+        boolean sameSubtree(int a, int b) {
+            int length = a - starts[a];
+            if (length != b - starts[b]) {
+                return false;
+            }
+            for (int i = 0; i <= length; i++) {
+                if (ops[a - i] != ops[b - i] || Double.doubleToLongBits(constants[a - i]) !=
+                        Double.doubleToLongBits(constants[b - i])) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        FlatTree build() {
+            return new FlatTree(Arrays.copyOf(ops, size), Arrays.copyOf(constants, size), Arrays.copyOf(starts, size));
+        }
+    }
+}
@@ -10,6 +10,10 @@ import java.io.IOException;
 import java.io.Serializable;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Represents a single fractal
@@ -20,13 +24,31 @@ public class Fractal implements Serializable {
     //The image representing the visualization of the fractal. This variable is transient to keep it from being
     // Serialized when the program state is saved.
     private transient BufferedImage img;
+    //The image produced by the Java renderer. It is only shown once loadImage() is called so that images rejected by
+    // the sparseness filter are never drawn.
+    private transient BufferedImage renderedImage;
+    //How sparse renderedImage is
+    private transient ImageScore score;
+    //How the orbits of the last render behaved
+    private transient OrbitOutcome outcome;
+    //The points plotted by the Java renderer, kept so that the image can be tone mapped again without rendering
+    private transient Histogram histogram;
+    //The parameters the image is tone mapped with
+    private transient ToneMap toneMap;
+    //Whether img is a snapshot of a render that is still running
+    private transient volatile boolean preview;
+    //img scaled to the size it is drawn at, and whether a new one is being scaled
+    private transient volatile Thumbnail thumbnail;
+    private transient volatile boolean scalingThumbnail;
     //Represents whether the image of the fractal has finished rendering
-    public boolean isGenerating;
+    public volatile boolean isGenerating;
 
     //Defines what operation produced this fractal: crossing, mutation, cloning, etc.
     private String operation = "";
     //Defines the parent Fractals if this Fractal's operation was crossing
     private Fractal parent1, parent2;
+    //The settings of the operation that produced this fractal, which are used again to mutate or redo it
+    private EvolutionConfig config = EvolutionConfig.DEFAULT;
 
     //Create the directory to store the image files
     static {
@@ -40,17 +62,31 @@ public class Fractal implements Serializable {
     //Defines the path to the image folder
     static final String IMAGE_PATH = "images" + File.separator;
 
+    //Numbers the renders by the C-Backend, so that every render writes its own files
+    private static final AtomicLong backendRenders = new AtomicLong();
+
     //Define the ID for the Fractal
     private String id;
-    //Define the path to the image of the Fractal
-    private String fileName, filterFileName;
+    //Define the path to the image of the Fractal written by the last render of the C-Backend, or null if there is none.
+    // Equal Fractals share an ID, so the files are numbered to keep their renders from overwriting each other.
+    private transient String fileName, filterFileName;
 
     /**
      * Constructs a new Fractal with randomly generated Equations
      */
     public Fractal() {
-        this(Equation.generateRandomXEquation(), Equation.generateRandomYEquation(),
-                Equation.generateRandomZEquation(), new Equation("x"), new Equation("y"), new Equation("z"));
+        this(Randoms.current());
+    }
+
+    /**
+     * Constructs a new Fractal with Equations that are randomly generated from the given random source
+     *
+     * @param random
+     */
+    Fractal(RandomSource random) {
+        this(Equation.generateRandomXEquation(random), Equation.generateRandomYEquation(random),
+                Equation.generateRandomZEquation(random), Equation.variable(FlatTree.X), Equation.variable(FlatTree.Y),
+                Equation.variable(FlatTree.Z));
     }
 
     /**
@@ -61,7 +97,7 @@ public class Fractal implements Serializable {
      * @param z
      */
     public Fractal(Equation x, Equation y, Equation z) {
-        this(x, y, z, new Equation("x"), new Equation("y"), new Equation("z"));
+        this(x, y, z, Equation.variable(FlatTree.X), Equation.variable(FlatTree.Y), Equation.variable(FlatTree.Z));
     }
 
     /**
@@ -86,20 +122,21 @@ public class Fractal implements Serializable {
     }
 
     /**
-     * Sets the ID and fileName parameters of the current Fractal
+     * Sets the ID of the current Fractal
      */
     private void setIdentification() {
         if (x == null || y == null) {
             id = "null";
         }
         else {
-            //The ID for the fractal is the hash code of the Equations
-            id = "f_" + x.hashCode() + y.hashCode();
+            //The ID for the fractal is made of the structural hashes of the Equations, so Fractals with the same
+            // Equations have the same ID
+            StringBuilder builder = new StringBuilder("f");
+            for (Equation e : new Equation[]{x, y, z, r, g, b}) {
+                builder.append('_').append(e == null ? "null" : Integer.toHexString(e.hashCode()));
+            }
+            id = builder.toString();
         }
-
-        //Use the ID to create the filename for the image
-        fileName = IMAGE_PATH + id + ".png";
-        filterFileName = IMAGE_PATH + id + "_filter.png";
     }
 
     /**
@@ -124,40 +161,59 @@ public class Fractal implements Serializable {
         parent2 = p2;
     }
 
+    /**
+     * Replaces all of the Equations of the current Fractal. Equations are only ever replaced, never modified, while
+     * the image may be rendering, so other threads always see complete Equations.
+     *
+     * @param x
+     * @param y
+     * @param z
+     * @param r
+     * @param g
+     * @param b
+     */
+    private void setEquations(Equation x, Equation y, Equation z, Equation r, Equation g, Equation b) {
+        this.x = x;
+        this.y = y;
+        this.z = z;
+        this.r = r;
+        this.g = g;
+        this.b = b;
+        setIdentification();
+    }
+
     /**
      * Creates the current Fractal over again.
      */
     public void redo() {
+        redo(Randoms.current());
+    }
+
+    /**
+     * Creates the current Fractal over again, drawing every random choice from the given random source.
+     *
+     * @param random
+     */
+    void redo(RandomSource random) {
         if (operation.equals("cross") && parent1 != null && parent2 != null) {
-            Fractal newFractal = parent1.cross(parent2);
+            Fractal newFractal = parent1.cross(parent2, getConfig(), random);
 
-            x = newFractal.getX();
-            y = newFractal.getY();
-            z = newFractal.getZ();
-            r = newFractal.getR();
-            g = newFractal.getG();
-            b = newFractal.getB();
+            setEquations(newFractal.getX(), newFractal.getY(), newFractal.getZ(), newFractal.getR(),
+                    newFractal.getG(), newFractal.getB());
         }
         else if (operation.equals("mutate")) {
-            inPlaceMutate();
+            inPlaceMutate(random);
         }
         else if (operation.equals("introduce") && parent1 != null) {
-            Fractal newFractal = parent1.introduce();
+            Fractal newFractal = parent1.introduce(getConfig(), random);
 
-            x = newFractal.getX();
-            y = newFractal.getY();
-            z = newFractal.getZ();
-            r = newFractal.getR();
-            g = newFractal.getG();
-            b = newFractal.getB();
+            setEquations(newFractal.getX(), newFractal.getY(), newFractal.getZ(), newFractal.getR(),
+                    newFractal.getG(), newFractal.getB());
         }
         else {
-            x = Equation.generateRandomXEquation();
-            y = Equation.generateRandomYEquation();
-            z = Equation.generateRandomZEquation();
-            r = new Equation("x");
-            g = new Equation("y");
-            b = new Equation("z");
+            setEquations(Equation.generateRandomXEquation(random), Equation.generateRandomYEquation(random),
+                    Equation.generateRandomZEquation(random), Equation.variable(FlatTree.X),
+                    Equation.variable(FlatTree.Y), Equation.variable(FlatTree.Z));
         }
     }
 
@@ -193,10 +249,25 @@ public class Fractal implements Serializable {
      * This method returns a copy of the crossed Fractal. The current Fractal is unmodified.
      *
      * @param f
+     * @param config the settings that choose which Equations are crossed
+     *
+     * @return
+     */
+    public Fractal cross(Fractal f, EvolutionConfig config) {
+        return cross(f, config, Randoms.current());
+    }
+
+    /**
+     * Crosses the current Fractal with the given Fractal f like cross(Fractal, EvolutionConfig), drawing every random
+     * choice from the given random source.
+     *
+     * @param f
+     * @param config
+     * @param random
      *
      * @return
      */
-    public Fractal cross(Fractal f) {
+    Fractal cross(Fractal f, EvolutionConfig config, RandomSource random) {
         //Clone the Equations to prevent changes from altering the original Equations
         Equation cloneX = x.clone();
         Equation cloneY = y.clone();
@@ -207,28 +278,28 @@ public class Fractal implements Serializable {
         Equation otherCloneX = f.x.clone();
         Equation otherCloneY = f.y.clone();
         Equation otherCloneZ = f.z.clone();
-        Equation otherCloneR = r.clone();
-        Equation otherCloneG = g.clone();
-        Equation otherCloneB = b.clone();
+        Equation otherCloneR = f.r.clone();
+        Equation otherCloneG = f.g.clone();
+        Equation otherCloneB = f.b.clone();
 
         //Cross the cloned Equations
-        if (GraphicalInterface.selector.xEquation.isSelected()) {
-            cloneX.cross(otherCloneX);
+        if (config.isEvolveX()) {
+            cloneX.cross(otherCloneX, random);
         }
-        if (GraphicalInterface.selector.yEquation.isSelected()) {
-            cloneY.cross(otherCloneY);
+        if (config.isEvolveY()) {
+            cloneY.cross(otherCloneY, random);
         }
-        if (GraphicalInterface.selector.zEquation.isSelected()) {
-            cloneZ.cross(otherCloneZ);
+        if (config.isEvolveZ()) {
+            cloneZ.cross(otherCloneZ, random);
         }
-        if (GraphicalInterface.selector.colorEquation.isSelected()) {
-            cloneR.cross(otherCloneR);
-            cloneG.cross(otherCloneG);
-            cloneB.cross(otherCloneB);
+        if (config.isEvolveColor()) {
+            cloneR.cross(otherCloneR, random);
+            cloneG.cross(otherCloneG, random);
+            cloneB.cross(otherCloneB, random);
         }
 
         //Return a new Fractal defined by the new crossed Equations
-        return new Fractal(cloneX, cloneY, cloneZ, cloneR, cloneG, cloneB);
+        return create(cloneX, cloneY, cloneZ, cloneR, cloneG, cloneB, config);
     }
 
     /**
@@ -241,9 +312,24 @@ public class Fractal implements Serializable {
      *
      * This method returns a copy of the newly mutated Fractal. The current Fractal is unmodified.
      *
+     * @param config the settings that choose which Equations are mutated and how
+     *
      * @return
      */
-    public Fractal mutate() {
+    public Fractal mutate(EvolutionConfig config) {
+        return mutate(config, Randoms.current());
+    }
+
+    /**
+     * Mutates the given Fractal like mutate(EvolutionConfig), drawing every random choice from the given random
+     * source.
+     *
+     * @param config
+     * @param random
+     *
+     * @return
+     */
+    Fractal mutate(EvolutionConfig config, RandomSource random) {
         //Clone the Equations to prevent changes from altering the original Equations.
         Equation cloneX = x.clone();
         Equation cloneY = y.clone();
@@ -253,44 +339,69 @@ public class Fractal implements Serializable {
         Equation cloneB = b.clone();
 
         //Mutate each of the Equations
-        if (GraphicalInterface.selector.xEquation.isSelected()) {
-            cloneX.mutate();
+        if (config.isEvolveX()) {
+            cloneX.mutate(config, random);
         }
-        if (GraphicalInterface.selector.yEquation.isSelected()) {
-            cloneY.mutate();
+        if (config.isEvolveY()) {
+            cloneY.mutate(config, random);
         }
-        if (GraphicalInterface.selector.zEquation.isSelected()) {
-            cloneZ.mutate();
+        if (config.isEvolveZ()) {
+            cloneZ.mutate(config, random);
         }
-        if (GraphicalInterface.selector.colorEquation.isSelected()) {
-            cloneR.introduce();
-            cloneG.introduce();
-            cloneB.introduce();
+        if (config.isEvolveColor()) {
+            cloneR.introduce(config, random);
+            cloneG.introduce(config, random);
+            cloneB.introduce(config, random);
         }
 
         //Return a new Fractal defined by the mutated Equations
-        return new Fractal(cloneX, cloneY, cloneZ, cloneR, cloneG, cloneB);
+        return create(cloneX, cloneY, cloneZ, cloneR, cloneG, cloneB, config);
     }
 
     /**
      * Mutates the current Fractal in place such that the current Fractal is altered.
+     *
+     * The Equations are mutated as clones which then replace the current Equations, so the Fractal is never left
+     * partially mutated. The settings of the operation that produced the current Fractal are used, so this can be
+     * called from any thread.
      */
     public void inPlaceMutate() {
+        inPlaceMutate(Randoms.current());
+    }
+
+    /**
+     * Mutates the current Fractal in place like inPlaceMutate(), drawing every random choice from the given random
+     * source. Renders use this to retry sparse Fractals the same way on any thread.
+     *
+     * @param random
+     */
+    void inPlaceMutate(RandomSource random) {
+        EvolutionConfig config = getConfig();
+        Equation newX = x, newY = y, newZ = z, newR = r, newG = g, newB = b;
+
         //Mutate each of the Equations
-        if (GraphicalInterface.selector.xEquation.isSelected()) {
-            x.mutate();
+        if (config.isEvolveX()) {
+            newX = x.clone();
+            newX.mutate(config, random);
         }
-        if (GraphicalInterface.selector.yEquation.isSelected()) {
-            y.mutate();
+        if (config.isEvolveY()) {
+            newY = y.clone();
+            newY.mutate(config, random);
         }
-        if (GraphicalInterface.selector.zEquation.isSelected()) {
-            z.mutate();
+        if (config.isEvolveZ()) {
+            newZ = z.clone();
+            newZ.mutate(config, random);
         }
-        if (GraphicalInterface.selector.colorEquation.isSelected()) {
-            r.mutate();
-            g.mutate();
-            b.mutate();
+        if (config.isEvolveColor()) {
+            newR = r.clone();
+            newR.mutate(config, random);
+            newG = g.clone();
+            newG.mutate(config, random);
+            newB = b.clone();
+            newB.mutate(config, random);
         }
+
+        setEquations(newX, newY, newZ, newR, newG, newB);
     }
 
     /**
@@ -307,9 +418,24 @@ public class Fractal implements Serializable {
      * Performs introduction on the current Fractal. This method returns a copy of the new Fractal. The current Fractal
      * is unmodified.
      *
+     * @param config the settings that choose which Equations are introduced into and how
+     *
+     * @return
+     */
+    public Fractal introduce(EvolutionConfig config) {
+        return introduce(config, Randoms.current());
+    }
+
+    /**
+     * Introduces new subtrees like introduce(EvolutionConfig), drawing every random choice from the given random
+     * source.
+     *
+     * @param config
+     * @param random
+     *
      * @return
      */
-    public Fractal introduce() {
+    Fractal introduce(EvolutionConfig config, RandomSource random) {
         Equation cloneX = x.clone();
         Equation cloneY = y.clone();
         Equation cloneZ = z.clone();
@@ -318,44 +444,272 @@ public class Fractal implements Serializable {
         Equation cloneB = b.clone();
 
         //Cross the cloned Equations based on evolutionary selection
-        if (GraphicalInterface.selector.xEquation.isSelected()) {
-            cloneX.introduce();
+        if (config.isEvolveX()) {
+            cloneX.introduce(config, random);
         }
-        if (GraphicalInterface.selector.yEquation.isSelected()) {
-            cloneY.introduce();
+        if (config.isEvolveY()) {
+            cloneY.introduce(config, random);
         }
-        if (GraphicalInterface.selector.zEquation.isSelected()) {
-            cloneZ.introduce();
+        if (config.isEvolveZ()) {
+            cloneZ.introduce(config, random);
         }
-        if (GraphicalInterface.selector.colorEquation.isSelected()) {
-            cloneR.introduce();
-            cloneG.introduce();
-            cloneB.introduce();
+        if (config.isEvolveColor()) {
+            cloneR.introduce(config, random);
+            cloneG.introduce(config, random);
+            cloneB.introduce(config, random);
         }
 
         //Return a new Fractal defined by the new crossed Equations
-        return new Fractal(cloneX, cloneY, cloneZ, cloneR, cloneG, cloneB);
+        return create(cloneX, cloneY, cloneZ, cloneR, cloneG, cloneB, config);
     }
 
     /**
-     * Generates the image for the current Fractal.
+     * Creates a Fractal with the given Equations that was produced by an operation with the given settings
      *
-     * @throws IOException
-     * @throws InterruptedException
+     * @param x
+     * @param y
+     * @param z
+     * @param r
+     * @param g
+     * @param b
+     * @param config
+     *
+     * @return
+     */
+    private static Fractal create(Equation x, Equation y, Equation z, Equation r, Equation g, Equation b,
+                                  EvolutionConfig config) {
+        Fractal f = new Fractal(x, y, z, r, g, b);
+        f.config = config;
+        return f;
+    }
+
+    /**
+     * Returns the settings of the operation that produced the current Fractal
+     *
+     * @return
+     */
+    public EvolutionConfig getConfig() {
+        //Fractals saved before the settings were recorded were produced with the default settings
+        return config == null ? EvolutionConfig.DEFAULT : config;
+    }
+
+    /**
+     * Generates the image for the current Fractal using the backend chosen by ImageManager.renderMode.
      */
     public void generateImage() {
+        generateImage(new CancellationToken());
+    }
+
+    /**
+     * Generates the image for the current Fractal using the backend chosen by ImageManager.renderMode. Rendering stops
+     * with a CancellationException once the given token is canceled.
+     *
+     * @param token
+     */
+    public void generateImage(final CancellationToken token) {
+        Dimension size = getImageSize();
+
+        if (ImageManager.renderMode == RenderMode.JAVA) {
+            Renderer renderer = new Renderer(size.width, size.height, getImagePoints());
+            renderer.setOrbits(getOrbits());
+            renderer.setCancellationToken(token);
+            histogram = renderer.renderHistogram(this, new Renderer.Listener() {
+                @Override
+                public void snapshot(Histogram snapshot, double snapshotCoverage) {
+                    //Snapshots of a canceled render should not replace the state left by renderCanceled()
+                    if (!token.isCanceled()) {
+                        showPreview(snapshot, snapshotCoverage);
+                    }
+                }
+            });
+            score = renderer.getScore();
+            outcome = renderer.getOutcome();
+            //A render that was terminated early is sparse, so there is no point in tone mapping it
+            if (renderer.isTerminatedEarly()) {
+                histogram = null;
+                renderedImage = null;
+            }
+            else {
+                renderedImage = histogram.toImage(getToneMap());
+            }
+        }
+        else {
+            generateImageInBackend(size.width, size.height, token);
+        }
+    }
+
+    /**
+     * Shows a snapshot of a render that is still running, so that the image fills in while it is rendered. Snapshots
+     * that are already sparse are not shown, since the finished image is likely to be rejected as well.
+     *
+     * @param snapshot
+     * @param snapshotCoverage
+     */
+    private void showPreview(Histogram snapshot, double snapshotCoverage) {
+        if (snapshotCoverage < ImageScore.MIN_COVERAGE) {
+            return;
+        }
+        img = snapshot.toImage(getToneMap());
+        preview = true;
+        repaint();
+    }
+
+    /**
+     * Returns how the orbits of the last render by the Java renderer behaved, or null if the Java renderer has not
+     * rendered the current Fractal.
+     *
+     * @return
+     */
+    public OrbitOutcome getOrbitOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns the number of orbits the image of a Fractal is rendered with by the Java renderer.
+     *
+     * @return
+     */
+    private static int getOrbits() {
+        //A whole grid of Fractals is rendered at once, so each one splits its points across its share of the cores
+        return Math.max(1, Runtime.getRuntime().availableProcessors() / ImageManager.grid.size());
+    }
+
+    /**
+     * Returns the key the image of the current Fractal is stored under in a RenderCache. The key depends only on the
+     * text of the Equations and on the parameters the image is rendered with, including the number of orbits and the
+     * session seed that the orbits are seeded from, so a cached image is always the image a new render would produce.
+     *
+     * @return
+     */
+    public String getRenderKey() {
+        Dimension size = getImageSize();
+        ToneMap map = getToneMap();
+        return RenderCache.key(x.toString(), y.toString(), z.toString(), r.toString(), g.toString(), b.toString(),
+                size.width + "x" + size.height, "" + getImagePoints(), ImageManager.renderMode.name(),
+                map.getGamma() + "/" + map.getExposure(), "" + getOrbits(), "" + Randoms.getSeed());
+    }
+
+    /**
+     * Returns the finished image of the current Fractal, or null if it has not finished rendering.
+     *
+     * @return
+     */
+    BufferedImage getImage() {
+        return preview ? null : img;
+    }
+
+    /**
+     * Shows an image of the current Fractal that was rendered before, for example one found in a RenderCache.
+     *
+     * @param image
+     */
+    void setImage(BufferedImage image) {
+        img = image;
+        preview = false;
+        isGenerating = false;
+        repaint();
+    }
+
+    /**
+     * Returns whether the image of the current Fractal has been rendered, or a snapshot of it is being shown.
+     *
+     * @return
+     */
+    public boolean hasImage() {
+        return img != null;
+    }
+
+    /**
+     * Called when the render of the image of the current Fractal has been canceled and has stopped. Any snapshot of the
+     * unfinished image is removed and the image is rendered again the next time it is drawn.
+     */
+    void renderCanceled() {
+        if (preview) {
+            img = null;
+            preview = false;
+        }
+        isGenerating = false;
+        //The Fractal may have been drawn while the render was stopping, in which case no new render was started
+        repaint();
+    }
+
+    /**
+     * Returns the parameters the image of the current Fractal is tone mapped with.
+     *
+     * @return
+     */
+    public ToneMap getToneMap() {
+        return toneMap == null ? ToneMap.DEFAULT : toneMap;
+    }
+
+    /**
+     * Sets the parameters the image of the current Fractal is tone mapped with. An image that was already rendered by
+     * the Java renderer is tone mapped again from its histogram, which is much cheaper than rendering it again.
+     *
+     * @param toneMap
+     */
+    public void setToneMap(ToneMap toneMap) {
+        this.toneMap = toneMap;
+        Histogram rendered = histogram;
+        if (rendered != null && img != null && !preview) {
+            img = rendered.toImage(getToneMap());
+            repaint();
+        }
+    }
+
+    /**
+     * Returns the size that images of Fractals are rendered at: the size of a cell of the grid of ImageManager when it
+     * fills the screen.
+     *
+     * @return
+     */
+    static Dimension getImageSize() {
+        return getImageSize(ImageManager.grid);
+    }
+
+    /**
+     * Returns the number of points plotted for images of Fractals. Images of larger grids are smaller, so they are
+     * given fewer points: every pixel gets as many points as in an image of a 3x3 grid, and rendering a whole generation
+     * takes about as long for every grid.
+     *
+     * @return
+     */
+    static int getImagePoints() {
+        return getImagePoints(ImageManager.grid);
+    }
+
+    /**
+     * Returns the number of points plotted for images of a cell of the given grid
+     *
+     * @param grid
+     *
+     * @return
+     */
+    static int getImagePoints(GridConfig grid) {
+        return (int) ((long) Renderer.DEFAULT_POINTS * GridConfig.DEFAULT.size() / grid.size());
+    }
+
+    /**
+     * Returns the size of a cell of the given grid when it fills the screen, or of 1920x1080 per cell of a 3x3 grid if
+     * the screen size is unavailable. Both dimensions are rounded up to a multiple of 4.
+     *
+     * @param grid
+     *
+     * @return
+     */
+    static Dimension getImageSize(GridConfig grid) {
         int image_width, image_height;
         try {
             //Get the dimensions of the screen in order to determine how large to render the image
             Dimension screenSize = Toolkit.getDefaultToolkit().getScreenSize();
 
             //Define the width and height of the image
-            image_width = (int) (screenSize.getWidth() / 3);
-            image_height = (int) (screenSize.getHeight() / 3);
+            image_width = (int) (screenSize.getWidth() / grid.getColumns());
+            image_height = (int) (screenSize.getHeight() / grid.getRows());
         } catch (Exception e) {
             //If there was an error getting the screen size, set default width and height values
-            image_width = 1920;
-            image_height = 1080;
+            image_width = 1920 * 3 / grid.getColumns();
+            image_height = 1080 * 3 / grid.getRows();
         }
 
         /*
@@ -367,24 +721,62 @@ public class Fractal implements Serializable {
             image_width += 4 - image_width % 4;
         }
         if (image_height % 4 != 0) {
-            image_height += 4 - image_height;
+            image_height += 4 - image_height % 4;
         }
 
+        return new Dimension(image_width, image_height);
+    }
+
+    /**
+     * Calls the C-Backend to render the image of the current Fractal and save it to a file. If the given token is
+     * canceled, the C-Backend is killed and any files it wrote are deleted.
+     *
+     * @param image_width
+     * @param image_height
+     * @param token
+     */
+    private void generateImageInBackend(int image_width, int image_height, CancellationToken token) {
+        String base = IMAGE_PATH + id + "_" + backendRenders.incrementAndGet();
+        fileName = base + ".png";
+        filterFileName = base + "_filter.png";
+
         //Call the C-Backend to render the image and save it to a file
         ProcessBuilder processBuilder = new ProcessBuilder(new String[]{
-                "C-Genetics/aesthetics", "-save", "-p", "100000",
+                "C-Genetics/aesthetics", "-save", "-p", "" + getImagePoints(),
                 "-s", "" + image_width, "" + image_height,
-                IMAGE_PATH + id,
+                base,
                 x.toString(), y.toString(), z.toString(),
                 r.toString(), g.toString(), b.toString()});
+        Process p = null;
+        Runnable kill = null;
         try {
-            Process p = processBuilder.start();
+            p = processBuilder.start();
+            final Process process = p;
+            kill = new Runnable() {
+                @Override
+                public void run() {
+                    process.destroy();
+                }
+            };
+            token.addListener(kill);
             p.waitFor();
-            p.destroy();
         } catch (IOException e) {
             e.printStackTrace();
         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (kill != null) {
+                token.removeListener(kill);
+            }
+            if (p != null) {
+                p.destroy();
+            }
+        }
 
+        //A killed C-Backend may have left half-written images behind
+        if (token.isCanceled()) {
+            discard();
+            throw new CancellationException();
         }
     }
 
@@ -396,6 +788,11 @@ public class Fractal implements Serializable {
      * @return
      */
     public boolean isSparseImage() {
+        if (ImageManager.renderMode == RenderMode.JAVA) {
+            //Diverged orbits never light enough pixels, so their Fractals are rejected without looking at the image
+            return renderedImage == null || outcome == OrbitOutcome.DIVERGED || score.isSparse();
+        }
+
         File f = new File(filterFileName);
         //Get the size of the image file in kilobytes
         double sizeOfImage = f.length() / 1024.0;
@@ -411,15 +808,40 @@ public class Fractal implements Serializable {
      * Loads the image file corresponding to the given fractal
      */
     public void loadImage() throws InterruptedException {
+        loadImage(new CancellationToken());
+    }
+
+    /**
+     * Loads the image file corresponding to the given fractal. Loading stops with a CancellationException once the
+     * given token is canceled, without showing the image.
+     *
+     * @param token
+     */
+    public void loadImage(CancellationToken token) throws InterruptedException {
+        token.throwIfCanceled();
+
+        //Images from the Java renderer are already in memory
+        if (ImageManager.renderMode == RenderMode.JAVA) {
+            img = renderedImage;
+            renderedImage = null;
+            preview = false;
+            isGenerating = false;
+            repaint();
+            return;
+        }
+
         //Load the image file. If it fails, retry a few times.
         int tries = 3;
         while (tries-- > 0) {
             try {
                 File f = new File(fileName);
-                img = ImageIO.read(f);
+                BufferedImage loaded = ImageIO.read(f);
+                token.throwIfCanceled();
+                img = loaded;
+                isGenerating = false;
 
                 //Force a repaint of the window to draw the newly rendered Fractal
-                GraphicalInterface.frame.getContentPane().repaint();
+                repaint();
 
                 //Delete the image file on disk to prevent the image folder from filling up the disk
                 discard();
@@ -429,11 +851,20 @@ public class Fractal implements Serializable {
             } catch (IOException e) {
                 System.err.println("File name: " + fileName);
                 e.printStackTrace();
-                Thread.sleep(500);
+                token.sleep(500);
             }
         }
     }
 
+    /**
+     * Repaints the box of the current Fractal in the window, if there is one, to draw a newly rendered image
+     */
+    private void repaint() {
+        if (GraphicalInterface.frame != null) {
+            GraphicalInterface.repaintFractal(this);
+        }
+    }
+
     /**
      * Calls the C-Backend to render the current Fractal in 3D.
      *
@@ -453,18 +884,20 @@ public class Fractal implements Serializable {
     }
 
     /**
-     * Draws the image of the current Fractal at the given coordinate (x,y). The coordinate represents the upper-left
-     * corner of the image.
+     * Draws the image of the current Fractal scaled to the given size at the given coordinate (x,y). The coordinate
+     * represents the upper-left corner of the image.
      *
      * @param g
      * @param x
      * @param y
+     * @param width
+     * @param height
      */
-    public void drawImage(Graphics g, int x, int y) {
+    public void drawImage(Graphics g, int x, int y, int width, int height) {
         //If no image has been rendered and we are not currently rendering, start the rendering
         if (img == null && !isGenerating) {
             isGenerating = true;
-            //Call the ImageManager method to render this image in a Thread
+            //Call the ImageManager method to render this image on one of its render threads
             ImageManager.renderImage(this);
         }
 
@@ -472,16 +905,48 @@ public class Fractal implements Serializable {
         if (img == null) {
             g.drawString("Loading...", x + 20, y + 20);
         }
-        //If the image has been rendered, draw it to the screen
+        //If the image has been rendered, or a snapshot of it is available, draw it to the screen
         else {
-            //We are no longer generating the image
-            isGenerating = false;
-            g.drawImage(img, x, y, GraphicalInterface.frame.getWidth() / 3,
-                    (GraphicalInterface.frame.getHeight() - GraphicalInterface.SELECTOR_HEIGHT) / 3,
-                    GraphicalInterface.frame);
+            BufferedImage image = img;
+            Thumbnail current = thumbnail;
+            if (current != null && current.matches(image, width, height)) {
+                g.drawImage(current.getImage(), x, y, null);
+            }
+            else {
+                //Scale the image while drawing until a Thumbnail of the new image or size is ready
+                g.drawImage(image, x, y, width, height, GraphicalInterface.frame);
+                if (!scalingThumbnail && width > 0 && height > 0) {
+                    scalingThumbnail = true;
+                    Thumbnail.create(this, image, width, height);
+                }
+            }
         }
     }
 
+    /**
+     * Called on the background thread once a Thumbnail requested by drawImage() has been scaled, with null if it could
+     * not be scaled.
+     *
+     * @param created
+     */
+    void thumbnailCreated(Thumbnail created) {
+        scalingThumbnail = false;
+        if (created != null) {
+            thumbnail = created;
+            repaint();
+        }
+    }
+
+    /**
+     * Returns the X, Y, Z, R, G, and B Equations of the current Fractal. Two Fractals with equal lists of Equations
+     * render the same image.
+     *
+     * @return
+     */
+    List<Equation> getEquations() {
+        return Arrays.asList(x, y, z, r, g, b);
+    }
+
     /**
      * Returns the X equation of the current Fractal. The returned Equation is not a clone so any changes made to the
      * returned Equation will affect the current Fractal.
@@ -546,9 +1011,21 @@ public class Fractal implements Serializable {
      * Deletes files created on the disk by the current Fractal
      */
     public void discard() {
-        File f = new File(fileName);
-        if (f.exists()) {
-            f.delete();
+        renderedImage = null;
+        histogram = null;
+        //A snapshot of a rejected image should not stay on the screen
+        if (preview) {
+            img = null;
+            preview = false;
+        }
+        for (String name : new String[]{fileName, filterFileName}) {
+            if (name == null) {
+                continue;
+            }
+            File f = new File(name);
+            if (f.exists()) {
+                f.delete();
+            }
         }
     }
 }
@@ -0,0 +1,452 @@
+package fractals;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static fractals.ClassFileWriter.*;
+
+/**
+ * Evaluates all six Equations of a Fractal in a single pass.
+ *
+ * The expression trees of the x, y, z, r, g, and b Equations are merged into one directed acyclic graph in which
+ * identical subexpressions, such as a sin(a*y) term that appears in both the x and y Equations, are only represented
+ * once. The graph is then compiled into a single JVM method that computes every shared subexpression once per step,
+ * keeps intermediate values in local variables, and writes the six results back into the state array. A step does not
+ * allocate any memory.
+ */
+public final class FractalKernel {
+    //The index of each variable in the state array
+    public static final int X = 0, Y = 1, Z = 2, R = 3, G = 4, B = 5;
+    //The number of variables in the state array
+    public static final int SIZE = 6;
+
+    //The operations of the nodes in the graph
+    private static final byte CONST = 0, VAR = 1, NEG = 2, SIN = 3, COS = 4, ABS = 5, ADD = 6, SUB = 7, MUL = 8,
+            DIV = 9, POW = 10, IF = 11;
+
+    //The descriptor of Step.step()
+    private static final String DESCRIPTOR = "([D)V";
+    //Local variable slots of the generated method. Slot 0 holds "this" and slot 1 holds the state array.
+    private static final int STATE_SLOT = 1, FIRST_VARIABLE_SLOT = 2;
+    private static final int FIRST_SHARED_SLOT = FIRST_VARIABLE_SLOT + 2 * SIZE;
+
+    /**
+     * The compiled form of a FractalKernel
+     */
+    public interface Step {
+        void step(double[] state);
+    }
+
+    /*
+    The nodes of the graph in topological order: the operands of a node always come before it. The operands of node
+    i are first[i], second[i], and third[i]. For IF nodes, first is the condition, second is used when the condition is
+    greater than zero, and third otherwise. For VAR nodes, first is the index of the variable.
+     */
+    private byte[] ops = new byte[64];
+    private double[] constants = new double[64];
+    private int[] first = new int[64], second = new int[64], third = new int[64];
+    private int size = 0;
+
+    //The number of times each node is used as an operand or as the result of an Equation
+    private int[] uses;
+    //The node computing the result of each Equation
+    private final int[] outputs = new int[SIZE];
+
+    //Finds existing nodes while the graph is being built
+    private HashMap<String, Integer> interned = new HashMap<>();
+
+    private final Step step;
+
+    //Holds the value of every node for the interpreter. Only used if the graph could not be compiled.
+    private final ThreadLocal<double[]> registers = new ThreadLocal<double[]>() {
+        @Override
+        protected double[] initialValue() {
+            return new double[size];
+        }
+    };
+
+    /**
+     * Creates a kernel that evaluates the Equations of the given Fractal.
+     *
+     * @param f
+     */
+    public FractalKernel(Fractal f) {
+        Equation[] equations = {f.getX(), f.getY(), f.getZ(), f.getR(), f.getG(), f.getB()};
+        for (int i = 0; i < SIZE; i++) {
+            outputs[i] = intern(equations[i].getTree(), equations[i].getTree().root());
+        }
+        interned = null;
+
+        uses = new int[size];
+        for (int i = 0; i < size; i++) {
+            if (ops[i] > VAR) {
+                uses[first[i]]++;
+            }
+            if (ops[i] >= ADD) {
+                uses[second[i]]++;
+            }
+            if (ops[i] == IF) {
+                uses[third[i]]++;
+            }
+        }
+        for (int output : outputs) {
+            uses[output]++;
+        }
+
+        step = compile();
+    }
+
+    /**
+     * Advances the state by one step. Every Equation is evaluated with the values in the given state, and the
+     * results replace them.
+     *
+     * @param state the values of x, y, z, r, g, and b indexed by X, Y, Z, R, G, and B
+     */
+    public void step(double[] state) {
+        if (step != null) {
+            step.step(state);
+        }
+        else {
+            interpret(state);
+        }
+    }
+
+    /**
+     * Returns the number of distinct nodes in the merged graph.
+     *
+     * @return
+     */
+    public int getNodeCount() {
+        return size;
+    }
+
+    /**
+     * Returns the index of the graph node equivalent to the subtree rooted at the given Node of an encoded tree,
+     * adding nodes to the graph as necessary.
+     *
+     * @param tree
+     * @param n
+     *
+     * @return
+     */
+    private int intern(FlatTree tree, int n) {
+        byte op = tree.op(n);
+        switch (op) {
+            case FlatTree.CONST:
+                return intern(CONST, -1, -1, -1, tree.constant(n));
+            case FlatTree.SIN:
+                return intern(SIN, intern(tree, n - 1), -1, -1, 0);
+            case FlatTree.COS:
+                return intern(COS, intern(tree, n - 1), -1, -1, 0);
+            case FlatTree.ABS:
+                return intern(ABS, intern(tree, n - 1), -1, -1, 0);
+            case FlatTree.ADD:
+                return intern(ADD, intern(tree, tree.child(n, 0)), intern(tree, n - 1), -1, 0);
+            case FlatTree.SUB:
+                return intern(SUB, intern(tree, tree.child(n, 0)), intern(tree, n - 1), -1, 0);
+            case FlatTree.MUL:
+                return intern(MUL, intern(tree, tree.child(n, 0)), intern(tree, n - 1), -1, 0);
+            case FlatTree.DIV:
+                return intern(DIV, intern(tree, tree.child(n, 0)), intern(tree, n - 1), -1, 0);
+            case FlatTree.POW:
+                return intern(POW, intern(tree, tree.child(n, 0)), intern(tree, n - 1), -1, 0);
+            case FlatTree.IF:
+                return intern(IF, intern(tree, tree.child(n, 0)), intern(tree, tree.child(n, 1)), intern(tree, n - 1),
+                        0);
+        }
+
+        //Variables and negated variables
+        int node = intern(VAR, FlatTree.variable(op), -1, -1, 0);
+        return FlatTree.isNegatedVariable(op) ? intern(NEG, node, -1, -1, 0) : node;
+    }
+
+    /**
+     * Returns the index of the node with the given operation and operands, adding it to the graph if it does not exist
+     * yet.
+     *
+     * @param op
+     * @param a
+     * @param b
+     * @param c
+     * @param constant
+     *
+     * @return
+     */
+    private int intern(byte op, int a, int b, int c, double constant) {
+        //Addition and multiplication are commutative, so a*y and y*a are the same node
+        if ((op == ADD || op == MUL) && a > b) {
+            int swap = a;
+            a = b;
+            b = swap;
+        }
+
+        String key = op == CONST ? "c" + Double.doubleToRawLongBits(constant) : op + ":" + a + "," + b + "," + c;
+        Integer existing = interned.get(key);
+        if (existing != null) {
+            return existing;
+        }
+
+        if (size == ops.length) {
+            int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            constants = Arrays.copyOf(constants, capacity);
+            first = Arrays.copyOf(first, capacity);
+            second = Arrays.copyOf(second, capacity);
+            third = Arrays.copyOf(third, capacity);
+        }
+        ops[size] = op;
+        constants[size] = constant;
+        first[size] = a;
+        second[size] = b;
+        third[size] = c;
+        interned.put(key, size);
+        return size++;
+    }
+
+    /**
+     * Evaluates the graph without compiling it.
+     *
+     * @param state
+     */
+    private void interpret(double[] state) {
+        double[] v = registers.get();
+        for (int i = 0; i < size; i++) {
+            switch (ops[i]) {
+                case CONST:
+                    v[i] = constants[i];
+                    break;
+                case VAR:
+                    v[i] = state[first[i]];
+                    break;
+                case NEG:
+                    v[i] = -v[first[i]];
+                    break;
+                case SIN:
+                    v[i] = Math.sin(v[first[i]]);
+                    break;
+                case COS:
+                    v[i] = Math.cos(v[first[i]]);
+                    break;
+                case ABS:
+                    v[i] = Math.abs(v[first[i]]);
+                    break;
+                case ADD:
+                    v[i] = v[first[i]] + v[second[i]];
+                    break;
+                case SUB:
+                    v[i] = v[first[i]] - v[second[i]];
+                    break;
+                case MUL:
+                    v[i] = v[first[i]] * v[second[i]];
+                    break;
+                case DIV:
+                    v[i] = v[first[i]] / v[second[i]];
+                    break;
+                case POW:
+                    v[i] = Math.pow(v[first[i]], v[second[i]]);
+                    break;
+                case IF:
+                    v[i] = v[first[i]] > 0 ? v[second[i]] : v[third[i]];
+                    break;
+            }
+        }
+        for (int i = 0; i < SIZE; i++) {
+            state[i] = v[outputs[i]];
+        }
+    }
+
+    /**
+     * Compiles the graph into a generated class. Returns null if the graph cannot be compiled, in which case the
+     * graph is interpreted instead.
+     *
+     * @return
+     */
+    private Step compile() {
+        try {
+            return new KernelWriter().compile();
+        } catch (RuntimeException | LinkageError | ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Generates the step() method for the graph.
+     *
+     * Nodes used more than once that every step computes anyway are computed a single time at the start of the step
+     * and kept in a local variable. All other nodes are computed where they are used, so the branches of an IF node
+     * are only computed when taken, even if they are shared with other branches. Such a node may be computed more
+     * than once in a step, but never more often than by the separate Equations.
+     */
+    private class KernelWriter {
+        private final ClassFileWriter writer = new ClassFileWriter("fractals.GeneratedKernel", Step.class);
+        private final ClassFileWriter.Code code = new ClassFileWriter.Code(FIRST_SHARED_SLOT);
+        //The local variable slot holding each node, or 0 if the node is computed where it is used
+        private final int[] slots = new int[size];
+
+        Step compile() throws ReflectiveOperationException {
+            //Load the state into local variables
+            for (int i = 0; i < SIZE; i++) {
+                loadState(i);
+                code.local(DSTORE, FIRST_VARIABLE_SLOT + 2 * i);
+                code.pop(2);
+            }
+
+            //Compute the shared nodes that are not only used inside the branches of IF nodes in topological order
+            boolean[] unconditional = findUnconditionalNodes();
+            int nextSlot = FIRST_SHARED_SLOT;
+            for (int i = 0; i < size; i++) {
+                if (ops[i] != CONST && ops[i] != VAR && uses[i] > 1 && unconditional[i]) {
+                    emit(i);
+                    code.setMaxLocals(nextSlot + 2);
+                    code.local(DSTORE, nextSlot);
+                    code.pop(2);
+                    slots[i] = nextSlot;
+                    nextSlot += 2;
+                }
+            }
+
+            //Write the results into the state. Results only depend on the local variables, never on the array.
+            for (int i = 0; i < SIZE; i++) {
+                code.local(ALOAD, STATE_SLOT);
+                code.push(1);
+                code.intConstant(i);
+                emit(outputs[i]);
+                code.op(DASTORE);
+                code.pop(4);
+            }
+            code.op(RETURN);
+
+            writer.addMethod("step", DESCRIPTOR, code);
+            return writer.newInstance(Step.class);
+        }
+
+        /**
+         * Returns which nodes are computed by every step: the results of the Equations, and the operands of such
+         * nodes except the branches of IF nodes.
+         *
+         * @return
+         */
+        private boolean[] findUnconditionalNodes() {
+            boolean[] unconditional = new boolean[size];
+            for (int output : outputs) {
+                unconditional[output] = true;
+            }
+            //Operands come before the nodes that use them, so a single pass from the end reaches every operand
+            for (int i = size - 1; i >= 0; i--) {
+                if (!unconditional[i]) {
+                    continue;
+                }
+                if (ops[i] > VAR) {
+                    unconditional[first[i]] = true;
+                }
+                if (ops[i] >= ADD && ops[i] != IF) {
+                    unconditional[second[i]] = true;
+                }
+            }
+            return unconditional;
+        }
+
+        private void loadState(int index) {
+            code.local(ALOAD, STATE_SLOT);
+            code.push(1);
+            code.intConstant(index);
+            code.op(DALOAD);
+            code.pop(2);
+            code.push(2);
+        }
+
+        /**
+         * Adds code that leaves the value of the given node on top of the operand stack.
+         *
+         * @param node
+         */
+        private void emit(int node) {
+            if (slots[node] != 0) {
+                code.local(DLOAD, slots[node]);
+                code.push(2);
+                return;
+            }
+
+            switch (ops[node]) {
+                case CONST:
+                    double constant = constants[node];
+                    if (Double.doubleToRawLongBits(constant) == 0L) {
+                        code.op(DCONST_0);
+                    }
+                    else if (constant == 1.0) {
+                        code.op(DCONST_1);
+                    }
+                    else {
+                        code.op(LDC2_W);
+                        code.u2(writer.doubleConstant(constant));
+                    }
+                    code.push(2);
+                    break;
+                case VAR:
+                    code.local(DLOAD, FIRST_VARIABLE_SLOT + 2 * first[node]);
+                    code.push(2);
+                    break;
+                case NEG:
+                    emit(first[node]);
+                    code.op(DNEG);
+                    break;
+                case SIN:
+                    emitMath(node, "sin");
+                    break;
+                case COS:
+                    emitMath(node, "cos");
+                    break;
+                case ABS:
+                    emitMath(node, "abs");
+                    break;
+                case ADD:
+                    emitBinary(node, DADD);
+                    break;
+                case SUB:
+                    emitBinary(node, DSUB);
+                    break;
+                case MUL:
+                    emitBinary(node, DMUL);
+                    break;
+                case DIV:
+                    emitBinary(node, DDIV);
+                    break;
+                case POW:
+                    emit(first[node]);
+                    emit(second[node]);
+                    code.op(INVOKESTATIC);
+                    code.u2(writer.methodConstant("java/lang/Math", "pow", "(DD)D"));
+                    code.pop(2);
+                    break;
+                case IF:
+                    emit(first[node]);
+                    code.op(DCONST_0);
+                    code.push(2);
+                    code.op(DCMPL);
+                    code.pop(3);
+                    int toElse = code.branch(IFLE);
+                    code.pop(1);
+                    emit(second[node]);
+                    int toEnd = code.branch(GOTO);
+                    code.pop(2);
+                    code.bind(toElse);
+                    emit(third[node]);
+                    code.bind(toEnd);
+                    break;
+            }
+        }
+
+        private void emitMath(int node, String method) {
+            emit(first[node]);
+            code.op(INVOKESTATIC);
+            code.u2(writer.methodConstant("java/lang/Math", method, "(D)D"));
+        }
+
+        private void emitBinary(int node, int opcode) {
+            emit(first[node]);
+            emit(second[node]);
+            code.op(opcode);
+            code.pop(2);
+        }
+    }
+}
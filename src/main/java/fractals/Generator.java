@@ -1,27 +1,66 @@
 package fractals;
 
+import graphics.EvolutionSelector;
 import graphics.GraphicalInterface;
 
+import javax.swing.*;
 import java.awt.*;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 /**
  * Generates new generations of Fractals.
  */
 public class Generator implements Serializable {
+    //The number of candidate Fractals created for each Fractal of a new generation. One more candidate is created for
+    // every operation, and each operation keeps the candidates whose probe renders are least sparse.
+    private static final int CANDIDATES_PER_FRACTAL = 3;
+    //The largest number of spare candidates, beyond one per Fractal, created for a whole generation. Large grids share
+    // these between their operations instead of probing CANDIDATES_PER_FRACTAL times as many Fractals as they show.
+    private static final int MAX_SPARE_CANDIDATES = 30;
+    //The number of times more Fractals than needed may be created when trying to find distinct candidates
+    private static final int MAX_ATTEMPTS = 3;
+    //Defines whether candidates whose probe images look nearly the same as a better candidate are skipped
+    private static final boolean PERCEPTUAL_DEDUPLICATION = true;
+
     private int generation = 0; // The current generation's number
 
+    private final GridConfig grid; //The grid the Fractals are shown in
+
     ArrayList<Fractal> fractals;  // Current generation of Fractals
-    ArrayList<Fractal> selectedFractals = new ArrayList<>(9);  //The list of fractals that have been selected
-    // by the user
+    //Cancels the probes of the generation that is being bred in the background for the window, or null if no
+    // generation is being bred
+    private transient volatile CancellationToken breeding;
 
     Stack<ArrayList<Fractal>> previous = new Stack<>(); //The previous generations of Fractals
     Stack<ArrayList<Fractal>> next = new Stack<>(); //The future generations of Fractals (if the
     // user has gone back to previous generations)
 
+    /**
+     * Creates a Generator for the grid that images are rendered for, which is chosen by the fractals.grid.* system
+     * properties.
+     */
+    public Generator() {
+        this(ImageManager.grid);
+    }
+
+    /**
+     * Creates a Generator whose generations fill the given grid.
+     *
+     * @param grid
+     */
+    public Generator(GridConfig grid) {
+        this.grid = grid;
+    }
+
     /**
      * Renders the ith Fractal in the C-Backend Render mode.
      *
@@ -38,14 +77,118 @@ public class Generator implements Serializable {
     }
 
     /**
-     * Generates a new generation. Initially, no Fractals are selected so the first generation
-     * will be completely random. Generations after this will be based on the Fractals that the
-     * user had selected in the previous generation.
+     * Starts generating a new generation for the window. Initially, no Fractals are selected so the first generation
+     * will be completely random. Generations after this will be based on the Fractals that the user had selected in
+     * the previous generation, evolved with the settings of the EvolutionSelector.
+     *
+     * The selection and the settings are read immediately, so this must be called on the Swing event thread. The
+     * renders of the current generation are canceled so that they do not hold up the probes. The candidates are then
+     * created and probed on a background thread while the current generation stays on the screen. Once they are done
+     * the new generation is shown, on the event thread, and the selection is cleared. Calls made while a generation is
+     * being generated are ignored, and so is paging between generations.
+     *
+     * @return whether a new generation is being generated
+     */
+    public boolean generateNewGeneration() {
+        if (breeding != null) {
+            return false;
+        }
+
+        //Find all of the Fractals that the user has selected
+        final ArrayList<Fractal> parents = new ArrayList<>();
+        for (int i = 0; fractals != null && i < Math.min(fractals.size(), GraphicalInterface.selectedFractals.length);
+             i++) {
+            if (GraphicalInterface.selectedFractals[i]) {
+                parents.add(fractals.get(i));
+            }
+        }
+        //Take a snapshot of the settings once, so that no operation touches the window
+        final EvolutionConfig config = GraphicalInterface.selector == null ? EvolutionConfig.DEFAULT :
+                EvolutionSelector.getConfig();
+
+        //Stop the renders of the current generation, including the retries of sparse Fractals, right away. Images of it
+        // that are drawn again are rendered after the probes.
+        ImageManager.cancelRenders();
+
+        final CancellationToken token = new CancellationToken();
+        final long seed = breedingSeed();
+        breeding = token;
+        new SwingWorker<ArrayList<Fractal>, Void>() {
+            @Override
+            protected ArrayList<Fractal> doInBackground() {
+                return breed(parents, config, seed, token);
+            }
+
+            @Override
+            protected void done() {
+                //A generation whose breeding was canceled is never shown
+                if (token.isCanceled()) {
+                    return;
+                }
+                breeding = null;
+                try {
+                    addGeneration(get());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                    return;
+                }
+
+                //Clear the selected fractals
+                GraphicalInterface.selectedFractals = new boolean[grid.size()];
+                if (GraphicalInterface.frame != null) {
+                    GraphicalInterface.frame.getContentPane().repaint();
+                }
+            }
+        }.execute();
+        return true;
+    }
+
+    /**
+     * Stops breeding the generation that generateNewGeneration() started, if any, without showing it. This must be
+     * called on the Swing event thread, for example before the Generator is replaced by a saved state.
+     */
+    public void cancelNewGeneration() {
+        CancellationToken token = breeding;
+        if (token != null) {
+            token.cancel();
+            breeding = null;
+        }
+    }
+
+    /**
+     * Generates a new generation from the given parents with the given settings and waits for it. If there are no
+     * parents, the new generation is completely random.
+     *
+     * @param parents
+     * @param config
+     */
+    public void generateNewGeneration(List<Fractal> parents, EvolutionConfig config) {
+        addGeneration(breed(parents, config, breedingSeed(), new CancellationToken()));
+    }
+
+    /**
+     * Returns the seed the next generation is bred with. It is derived from the number of that generation rather than
+     * from the thread that breeds it, so a session with a fixed seed always breeds the same Fractals from the same
+     * selections.
+     *
+     * @return
      */
-    public void generateNewGeneration() {
-        //Halt all of the ImageManager threads from the previous generation to prevent slow-downs in the current
+    private long breedingSeed() {
+        return Randoms.derive(generation + 1);
+    }
+
+    /**
+     * Makes the given Fractals the current generation
+     *
+     * @param generation
+     */
+    private void addGeneration(ArrayList<Fractal> generation) {
+        //Cancel all of the ImageManager renders from the previous generation to prevent slow-downs in the current
         // generation
-        ImageManager.interruptThreads();
+        ImageManager.cancelRenders();
 
         //Add the old generation to the Stack of old generations if this is not the first generation
         if (fractals != null) {
@@ -53,72 +196,243 @@ public class Generator implements Serializable {
         }
 
         //Increment the generation count
-        generation++;
+        this.generation++;
 
-        //Find all of the Fractals that the user has selected
-        for (int i = 0; i < GraphicalInterface.selectedFractals.length; i++) {
-            if (GraphicalInterface.selectedFractals[i]) {
-                selectedFractals.add(fractals.get(i));
+        fractals = generation;
+    }
+
+    /**
+     * Creates the Fractals of a new generation from the given parents with the given settings. This does not change
+     * the current generation, so it can run on any thread.
+     *
+     * @param parents
+     * @param config
+     * @param seed   determines every random choice, together with the index of the candidate
+     * @param token  cancels the probes of the candidates
+     *
+     * @return
+     *
+     * @throws CancellationException if the token was canceled
+     */
+    private ArrayList<Fractal> breed(List<Fractal> parents, EvolutionConfig config, long seed,
+                                     CancellationToken token) {
+        //Generate more candidates than needed for every operation. Candidates with the same Equations as an earlier
+        // candidate are skipped, so no two cells render the same Fractal.
+        int[] counts = grid.getOperationCounts();
+        int spares = Math.min(grid.size() * (CANDIDATES_PER_FRACTAL - 1), MAX_SPARE_CANDIDATES);
+        HashSet<List<Equation>> seen = new HashSet<>();
+        ArrayList<Fractal> candidates = new ArrayList<>(grid.size() + spares + counts.length * 2);
+        int[] starts = new int[counts.length + 1];
+        //Every candidate that is created, kept or not, draws from its own random source
+        int index = 0;
+        for (int operation = 0; operation < counts.length; operation++) {
+            starts[operation] = candidates.size();
+            if (counts[operation] == 0) {
+                continue;
             }
+            //Every operation gets a share of the spares in proportion to its number of Fractals, rounded up
+            int wanted = counts[operation] + (spares * counts[operation] + grid.size() - 1) / grid.size() + 1;
+            int created = 0;
+            for (int attempt = 0; created < wanted && attempt < wanted * MAX_ATTEMPTS; attempt++) {
+                Fractal candidate = createFractal(operation, parents, config,
+                        Randoms.create(Randoms.mix(seed + index++)));
+                if (seen.add(candidate.getEquations())) {
+                    candidates.add(candidate);
+                    created++;
+                }
+            }
+            //If the selected Fractals cannot produce enough distinct candidates, allow repeats to fill the cells
+            for (; created < counts[operation]; created++) {
+                candidates.add(createFractal(operation, parents, config, Randoms.create(Randoms.mix(seed + index++))));
+            }
+        }
+        starts[counts.length] = candidates.size();
+
+        //Probe every candidate and keep the best ones of every operation
+        Probe[] probes = ImageManager.probe(candidates, token);
+        ArrayList<Probe> kept = new ArrayList<>(grid.size());
+        ArrayList<Fractal> generation = new ArrayList<>(grid.size());
+        for (int operation = 0; operation < counts.length; operation++) {
+            generation.addAll(best(candidates, probes, starts[operation], starts[operation + 1], counts[operation],
+                    kept));
         }
+        return generation;
+    }
 
-        //Clear out the old Fractals
-        fractals = new ArrayList<>(9);
+    /**
+     * Creates a new Fractal by the given operation. If there are no parents, the new Fractal is completely random.
+     * Otherwise it is created from the parents by the operation: cross-over for 0, mutation for 1, and introduction
+     * for 2, in the order of GridConfig.getOperationCounts().
+     *
+     * @param operation
+     * @param parents
+     * @param config
+     * @param random
+     *
+     * @return
+     */
+    private static Fractal createFractal(int operation, List<Fractal> parents, EvolutionConfig config,
+                                         RandomSource random) {
+        //If there were no selected parents in the previous generation, just generate a new random Fractal
+        if (parents.isEmpty()) {
+            return new Fractal(random);
+        }
 
-        //Generate the new Fractals one by one
         Fractal newFractal;
-        for (int i = 0; i < 9; i++) {
-            //If there were no selected parents in the previous generation, just generate a new random Fractal
-            if (selectedFractals.isEmpty()) {
-                newFractal = new Fractal();
-            }
-            else {
-                //Choose a random parent for the new Fractal from the pool of user-selected Fractals
-                Fractal parent1 = selectedFractals.get((int) (Math.random() * selectedFractals.size()));
-                //For the first row of Fractals, perform Cross-over
-                if (i < 3) {
-                        /*
-                        Cross-over requires a second parent. Choose this second parent from the pool of user-selected
-                         Fractals.
-                        parent1 and parent2 can refer to the same Fractal.
-                         */
-                    Fractal parent2 = selectedFractals.get((int) (Math.random() * selectedFractals.size()));
-                    newFractal = parent1.cross(parent2);
-                    //Fill in information about the Fractal's creation
-                    newFractal.setOperation("cross");
-                    newFractal.setParents(parent1, parent2);
-                }
-                else if (i < 6) {
-                    //For the second row of Fractals, perform mutation
-                    newFractal = parent1.mutate();
-                    newFractal.setOperation("mutate");
-                }
-                else {
-                    //For the third row of Fractals, perform introduction
-                    newFractal = parent1.introduce();
-                    newFractal.setOperation("introduce");
-                    newFractal.setParents(parent1, null);
+        //Choose a random parent for the new Fractal from the pool of user-selected Fractals
+        Fractal parent1 = parents.get(random.nextInt(parents.size()));
+        //Perform Cross-over
+        if (operation == 0) {
+            /*
+            Cross-over requires a second parent. Choose this second parent from the pool of user-selected
+             Fractals.
+            parent1 and parent2 can refer to the same Fractal.
+             */
+            Fractal parent2 = parents.get(random.nextInt(parents.size()));
+            newFractal = parent1.cross(parent2, config, random);
+            //Fill in information about the Fractal's creation
+            newFractal.setOperation("cross");
+            newFractal.setParents(parent1, parent2);
+        }
+        else if (operation == 1) {
+            //Perform mutation
+            newFractal = parent1.mutate(config, random);
+            newFractal.setOperation("mutate");
+        }
+        else {
+            //Perform introduction
+            newFractal = parent1.introduce(config, random);
+            newFractal.setOperation("introduce");
+            newFractal.setParents(parent1, null);
+        }
+        return newFractal;
+    }
+
+    /**
+     * Returns the given number of candidates with the best scores from the candidates between the indices from
+     * (inclusive) and to (exclusive). Candidates without a probe are ranked last.
+     *
+     * Candidates whose probe image looks nearly the same as the image of a candidate that was already kept are only
+     * chosen if there are not enough other candidates. The probes of the chosen candidates are added to kept.
+     *
+     * @param candidates
+     * @param probes
+     * @param from
+     * @param to
+     * @param keep
+     * @param kept       the probes of the candidates kept so far in the whole generation
+     *
+     * @return
+     */
+    private static List<Fractal> best(List<Fractal> candidates, final Probe[] probes, int from, int to, int keep,
+                                      List<Probe> kept) {
+        ArrayList<Integer> indices = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            indices.add(i);
+        }
+        //The sort is stable, so equally good candidates keep the order they were created in
+        Collections.sort(indices, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                if (probes[a] == null || probes[b] == null) {
+                    return (probes[a] == null ? 1 : 0) - (probes[b] == null ? 1 : 0);
                 }
+                return probes[a].getScore().compareTo(probes[b].getScore());
             }
-            //Add the new Fractal to the new generation
-            fractals.add(newFractal);
+        });
+
+        ArrayList<Fractal> best = new ArrayList<>(keep);
+        ArrayList<Integer> skipped = new ArrayList<>();
+        for (int index : indices) {
+            if (best.size() == keep) {
+                break;
+            }
+            if (PERCEPTUAL_DEDUPLICATION && isNearDuplicate(probes[index], kept)) {
+                skipped.add(index);
+                continue;
+            }
+            best.add(candidates.get(index));
+            if (probes[index] != null) {
+                kept.add(probes[index]);
+            }
+        }
+        for (int i = 0; best.size() < keep && i < skipped.size(); i++) {
+            best.add(candidates.get(skipped.get(i)));
         }
+        return best;
+    }
+
+    /**
+     * Returns whether the given probe shows nearly the same image as any of the kept probes. Sparse images are never
+     * considered duplicates, since they all look alike and are replaced by the sparseness filter anyway.
+     *
+     * @param probe
+     * @param kept
+     *
+     * @return
+     */
+    private static boolean isNearDuplicate(Probe probe, List<Probe> kept) {
+        if (probe == null || probe.getScore().isSparse()) {
+            return false;
+        }
+        for (Probe other : kept) {
+            if (!other.getScore().isSparse() && probe.isNearDuplicate(other)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the position of the given Fractal in the current generation, or -1 if it is not part of it.
+     *
+     * @param f
+     *
+     * @return
+     */
+    public int indexOf(Fractal f) {
+        ArrayList<Fractal> current = fractals;
+        return current == null ? -1 : current.indexOf(f);
+    }
 
-        //Clear the list of selected Fractals
-        selectedFractals.clear();
+    /**
+     * Returns the Fractals of the current generation in the order of the grid, or an empty list before the first
+     * generation.
+     *
+     * @return
+     */
+    public List<Fractal> getFractals() {
+        ArrayList<Fractal> current = fractals;
+        return current == null ? Collections.<Fractal>emptyList() : Collections.unmodifiableList(current);
+    }
+
+    /**
+     * Returns the grid the Fractals are shown in
+     *
+     * @return
+     */
+    public GridConfig getGrid() {
+        return grid;
     }
 
     /**
-     * Draws the ith Fractal at the given (x,y) coordinate. This coordinate represents the top-left corner of the
-     * image.
+     * Draws the ith Fractal scaled to the given size at the given (x,y) coordinate. This coordinate represents the
+     * top-left corner of the image.
      *
      * @param index
      * @param g
      * @param x
      * @param y
+     * @param width
+     * @param height
      */
-    public void drawImage(int index, Graphics g, int x, int y) {
-        fractals.get(index).drawImage(g, x, y);
+    public void drawImage(int index, Graphics g, int x, int y, int width, int height) {
+        ArrayList<Fractal> current = fractals;
+        //Ensure that the index is in bounds
+        if (current == null || index >= current.size()) {
+            return;
+        }
+        current.get(index).drawImage(g, x, y, width, height);
     }
 
     /**
@@ -126,14 +440,14 @@ public class Generator implements Serializable {
      * does nothing.
      */
     public void decrementGeneration() {
-        //Don't allow going before the first generation
-        if (previous.isEmpty()) {
+        //Don't allow going before the first generation, or leaving the generation a new one is being bred from
+        if (previous.isEmpty() || breeding != null) {
             return;
         }
 
-        //Halt all of the ImageManager threads from the previous generation to prevent slow-downs in the current
+        //Cancel all of the ImageManager renders from the previous generation to prevent slow-downs in the current
         // generation
-        ImageManager.interruptThreads();
+        ImageManager.cancelRenders();
 
         //Decrement the generation count
         generation--;
@@ -145,9 +459,12 @@ public class Generator implements Serializable {
 
         //Fetch the previous generation
         fractals = previous.pop();
+        prefetchNeighbours();
 
         //Repaint the window
-        GraphicalInterface.frame.getContentPane().repaint();
+        if (GraphicalInterface.frame != null) {
+            GraphicalInterface.frame.getContentPane().repaint();
+        }
     }
 
     /**
@@ -155,14 +472,14 @@ public class Generator implements Serializable {
      * nothing.
      */
     public void incrementGeneration() {
-        //Don't allow going past the last generation
-        if (next.isEmpty()) {
+        //Don't allow going past the last generation, or leaving the generation a new one is being bred from
+        if (next.isEmpty() || breeding != null) {
             return;
         }
 
-        //Halt all of the ImageManager threads from the previous generation to prevent slow-downs in the current
+        //Cancel all of the ImageManager renders from the previous generation to prevent slow-downs in the current
         // generation
-        ImageManager.interruptThreads();
+        ImageManager.cancelRenders();
 
         //Increment the generation count
         generation++;
@@ -174,9 +491,25 @@ public class Generator implements Serializable {
 
         //Fetch the previous generation of Fractals
         fractals = next.pop();
+        prefetchNeighbours();
 
         //Repaint the window
-        GraphicalInterface.frame.getContentPane().repaint();
+        if (GraphicalInterface.frame != null) {
+            GraphicalInterface.frame.getContentPane().repaint();
+        }
+    }
+
+    /**
+     * Renders the images of the generations directly before and after the current one in the background. These
+     * renders only run when no image of the current generation is waiting to be rendered.
+     */
+    private void prefetchNeighbours() {
+        if (!previous.isEmpty()) {
+            ImageManager.prefetchImages(previous.peek());
+        }
+        if (!next.isEmpty()) {
+            ImageManager.prefetchImages(next.peek());
+        }
     }
 
     /**
@@ -188,6 +521,37 @@ public class Generator implements Serializable {
         return generation;
     }
 
+    /**
+     * Returns the sizes of the expression trees of the current generation
+     *
+     * @return
+     */
+    public TreeStatistics getTreeStatistics() {
+        return getTreeStatistics(generation);
+    }
+
+    /**
+     * Returns the sizes of the expression trees of the given generation, numbered from 1 like getGeneration(). Returns
+     * null if the generation does not exist.
+     *
+     * @param number
+     *
+     * @return
+     */
+    public TreeStatistics getTreeStatistics(int number) {
+        if (fractals == null || number < 1 || number > getTotalGenerations()) {
+            return null;
+        }
+        if (number == generation) {
+            return TreeStatistics.of(fractals);
+        }
+        if (number < generation) {
+            return TreeStatistics.of(previous.get(number - 1));
+        }
+        //The following generation is on the top of the Stack
+        return TreeStatistics.of(next.get(next.size() - (number - generation)));
+    }
+
     /**
      * Returns the total number of generations
      *
@@ -0,0 +1,163 @@
+package fractals;
+
+import java.io.Serializable;
+
+/**
+ * Defines the grid of Fractals shown in the window: its number of columns and rows, and how its cells are shared out
+ * between the operations that create new Fractals from the selected ones.
+ *
+ * The operations are given as ratios, so cross:mutate:introduce = 1:1:1 gives every operation a third of the cells.
+ * Cells are assigned in reading order, cross-over first, then mutation, then introduction, so with equal ratios and
+ * three rows every row holds one operation.
+ */
+public final class GridConfig implements Serializable {
+    private static final long serialVersionUID = 3271845362204915381L;
+
+    //The system properties used to choose the grid, for example: -Dfractals.grid.columns=10 -Dfractals.grid.rows=10
+    // -Dfractals.grid.operators=2:1:1
+    public static final String COLUMNS_PROPERTY = "fractals.grid.columns";
+    public static final String ROWS_PROPERTY = "fractals.grid.rows";
+    public static final String OPERATORS_PROPERTY = "fractals.grid.operators";
+
+    //The largest number of columns or rows. Boxes of a 10x10 grid are still large enough to judge a Fractal by.
+    public static final int MAX_DIMENSION = 10;
+
+    //The grid the program has always used
+    public static final GridConfig DEFAULT = new GridConfig(3, 3, 1, 1, 1);
+
+    private final int columns, rows;
+    private final double cross, mutate, introduce;
+
+    /**
+     * Creates a grid with the given dimensions and ratios of operations.
+     *
+     * @param columns   the number of columns, between 1 and MAX_DIMENSION
+     * @param rows      the number of rows, between 1 and MAX_DIMENSION
+     * @param cross     the share of cells created by cross-over
+     * @param mutate    the share of cells created by mutation
+     * @param introduce the share of cells created by introduction
+     */
+    public GridConfig(int columns, int rows, double cross, double mutate, double introduce) {
+        if (columns < 1 || columns > MAX_DIMENSION || rows < 1 || rows > MAX_DIMENSION) {
+            throw new IllegalArgumentException("Grid dimensions must be between 1 and " + MAX_DIMENSION + ": " +
+                    columns + "x" + rows);
+        }
+        if (!(cross >= 0 && mutate >= 0 && introduce >= 0) || cross + mutate + introduce <= 0 ||
+                Double.isInfinite(cross + mutate + introduce)) {
+            throw new IllegalArgumentException("Operation ratios must be non-negative and not all zero: " + cross +
+                    ":" + mutate + ":" + introduce);
+        }
+        this.columns = columns;
+        this.rows = rows;
+        this.cross = cross;
+        this.mutate = mutate;
+        this.introduce = introduce;
+    }
+
+    /**
+     * Returns the grid described by the fractals.grid.* system properties. Properties that are not set or are not
+     * valid keep the values of DEFAULT.
+     *
+     * @return
+     */
+    public static GridConfig fromSystemProperties() {
+        int columns = Integer.getInteger(COLUMNS_PROPERTY, DEFAULT.columns);
+        int rows = Integer.getInteger(ROWS_PROPERTY, DEFAULT.rows);
+        if (columns < 1 || columns > MAX_DIMENSION) {
+            columns = DEFAULT.columns;
+        }
+        if (rows < 1 || rows > MAX_DIMENSION) {
+            rows = DEFAULT.rows;
+        }
+
+        double[] ratios = parseRatios(System.getProperty(OPERATORS_PROPERTY, ""));
+        if (ratios == null) {
+            ratios = new double[]{DEFAULT.cross, DEFAULT.mutate, DEFAULT.introduce};
+        }
+        return new GridConfig(columns, rows, ratios[0], ratios[1], ratios[2]);
+    }
+
+    /**
+     * Parses ratios of the form cross:mutate:introduce, such as 2:1:1. Returns null if the text is not of that form or
+     * the ratios are not valid.
+     *
+     * @param text
+     *
+     * @return
+     */
+    private static double[] parseRatios(String text) {
+        String[] parts = text.split(":");
+        if (parts.length != 3) {
+            return null;
+        }
+        double[] ratios = new double[3];
+        double total = 0;
+        try {
+            for (int i = 0; i < 3; i++) {
+                ratios[i] = Double.parseDouble(parts[i].trim());
+                if (!(ratios[i] >= 0) || Double.isInfinite(ratios[i])) {
+                    return null;
+                }
+                total += ratios[i];
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return total > 0 ? ratios : null;
+    }
+
+    public int getColumns() {
+        return columns;
+    }
+
+    public int getRows() {
+        return rows;
+    }
+
+    /**
+     * Returns the number of Fractals in a generation
+     *
+     * @return
+     */
+    public int size() {
+        return columns * rows;
+    }
+
+    /**
+     * Returns how many cells of the grid each operation fills, in the order cross-over, mutation, introduction. The
+     * cells are shared out by the largest remainder method, so the counts always add up to size() and differ from the
+     * exact ratios by less than one cell.
+     *
+     * @return
+     */
+    public int[] getOperationCounts() {
+        double[] ratios = {cross, mutate, introduce};
+        double total = cross + mutate + introduce;
+        int[] counts = new int[3];
+        double[] remainders = new double[3];
+        int assigned = 0;
+        for (int i = 0; i < 3; i++) {
+            double exact = size() * ratios[i] / total;
+            counts[i] = (int) exact;
+            remainders[i] = exact - counts[i];
+            assigned += counts[i];
+        }
+        //Give the cells left over to the operations that lost the most by rounding down, earlier operations first
+        for (; assigned < size(); assigned++) {
+            int largest = 0;
+            for (int i = 1; i < 3; i++) {
+                if (remainders[i] > remainders[largest]) {
+                    largest = i;
+                }
+            }
+            counts[largest]++;
+            remainders[largest] = -1;
+        }
+        return counts;
+    }
+
+    @Override
+    public String toString() {
+        return columns + "x" + rows + " (cross:mutate:introduce = " + cross + ":" + mutate + ":" + introduce + ")";
+    }
+}
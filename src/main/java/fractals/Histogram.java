@@ -0,0 +1,197 @@
+package fractals;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Accumulates the points of a render. Every pixel counts how many points landed in it and sums their colors, so
+ * histograms built by different threads can be merged by adding them together. Plotting more points therefore gives
+ * smoother densities rather than just overdrawing the same pixels, and a ToneMap turns the densities into an image.
+ */
+class Histogram {
+    //The darkest value a color channel can be drawn with so that plotted points never blend into the background
+    private static final int MIN_CHANNEL = 64;
+
+    private final int width, height;
+    //The number of points in each pixel
+    private final int[] counts;
+    //The sum of the colors of the points in each pixel. Each color is in the range [0,1].
+    private final float[] red, green, blue;
+
+    /**
+     * Creates an empty histogram with one bin per pixel of an image of the given size.
+     *
+     * @param width
+     * @param height
+     */
+    Histogram(int width, int height) {
+        this.width = width;
+        this.height = height;
+        counts = new int[width * height];
+        red = new float[width * height];
+        green = new float[width * height];
+        blue = new float[width * height];
+    }
+
+    /**
+     * Adds a point with the given color to the given pixel.
+     *
+     * @param pixel the index of the pixel: row * width + column
+     * @param r
+     * @param g
+     * @param b
+     */
+    void add(int pixel, float r, float g, float b) {
+        counts[pixel]++;
+        red[pixel] += r;
+        green[pixel] += g;
+        blue[pixel] += b;
+    }
+
+    /**
+     * Adds the points of another histogram of the same size to this one.
+     *
+     * @param other
+     */
+    void merge(Histogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+            red[i] += other.red[i];
+            green[i] += other.green[i];
+            blue[i] += other.blue[i];
+        }
+    }
+
+    /**
+     * Returns the number of pixels that at least one point landed in.
+     *
+     * @return
+     */
+    int getLitPixels() {
+        int lit = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                lit++;
+            }
+        }
+        return lit;
+    }
+
+    /**
+     * Measures how sparse the image of this histogram is.
+     *
+     * @return
+     */
+    ImageScore score() {
+        long total = 0;
+        int lit = 0;
+        int left = width, right = -1, top = height, bottom = -1;
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                total += counts[i];
+                lit++;
+                int row = i / width, column = i % width;
+                left = Math.min(left, column);
+                right = Math.max(right, column);
+                top = Math.min(top, row);
+                bottom = Math.max(bottom, row);
+            }
+        }
+        if (lit == 0) {
+            return new ImageScore(0, 0, 0);
+        }
+
+        //The Shannon entropy of the distribution of points over the pixels, relative to its largest possible value
+        double entropy = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                double p = count / (double) total;
+                entropy -= p * Math.log(p);
+            }
+        }
+        entropy /= Math.log(counts.length);
+
+        double boxArea = (right - left + 1) * (double) (bottom - top + 1);
+        return new ImageScore(lit / (double) counts.length, entropy, lit / boxArea);
+    }
+
+    /**
+     * Returns a perceptual hash of the image of this histogram. The image is divided into an 8x8 grid, and each bit of
+     * the hash tells whether its cell has more lit pixels than the median cell.
+     *
+     * @return
+     */
+    long perceptualHash() {
+        int[] cells = new int[64];
+        for (int i = 0; i < counts.length; i++) {
+            if (counts[i] > 0) {
+                int row = i / width * 8 / height, column = i % width * 8 / width;
+                cells[row * 8 + column]++;
+            }
+        }
+
+        int[] sorted = cells.clone();
+        Arrays.sort(sorted);
+        int median = sorted[sorted.length / 2];
+
+        long hash = 0;
+        for (int i = 0; i < cells.length; i++) {
+            if (cells[i] > median) {
+                hash |= 1L << i;
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the number of points in the most visited pixel.
+     *
+     * @return
+     */
+    int getMaxCount() {
+        int max = 0;
+        for (int count : counts) {
+            max = Math.max(max, count);
+        }
+        return max;
+    }
+
+    /**
+     * Tone maps the histogram into an image. Every pixel with at least one point is drawn with the average color of
+     * its points, darkened according to the number of points that landed in it. The histogram is not modified, so it
+     * can be tone mapped again with different parameters.
+     *
+     * @param toneMap
+     *
+     * @return
+     */
+    BufferedImage toImage(ToneMap toneMap) {
+        double logMax = Math.log1p(getMaxCount());
+        int[] pixels = new int[counts.length];
+        for (int i = 0; i < counts.length; i++) {
+            int count = counts[i];
+            if (count > 0) {
+                double brightness = toneMap.brightness(count, logMax);
+                pixels[i] = channel(red[i] / count, brightness) << 16 | channel(green[i] / count, brightness) << 8 |
+                        channel(blue[i] / count, brightness);
+            }
+        }
+
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, width, height, pixels, 0, width);
+        return image;
+    }
+
+    /**
+     * Scales a color value in the range [0,1] into the range [MIN_CHANNEL, 255] and then darkens it by the given
+     * brightness.
+     *
+     * @param value
+     * @param brightness
+     *
+     * @return
+     */
+    private static int channel(float value, double brightness) {
+        return (int) Math.round((MIN_CHANNEL + value * (255 - MIN_CHANNEL)) * brightness);
+    }
+}
@@ -1,34 +1,102 @@
 package fractals;
 
+import java.awt.*;
+import java.awt.image.BufferedImage;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * ImageManager controls the generation of Fractal images.
- * This class uses Threads to ensure that images are rendered as fast
- * as possible.
+ * Images are rendered by a RenderScheduler with one thread per processor, so that as many images as possible are
+ * rendered at once without the renders competing for the processors. Every stage of a render checks its
+ * CancellationToken, so canceled renders stop within milliseconds.
  */
 public class ImageManager {
     //Defines whether or not the ImageManager will perform filtering of generated Fractals
     private static final boolean PERFORM_FILTERING = true;
 
-    //The list of currently running threads
-    private static ArrayList<ImageGeneratorThread> threads = new ArrayList<>();
+    //Defines which backend renders the images. The C-Backend can still be used by running with
+    // -Dfractals.renderer=native
+    public static RenderMode renderMode = RenderMode.fromSystemProperty();
 
-    // Threaded generator for creating the image
-    static class ImageGeneratorThread extends Thread {
-        private Fractal f;
+    //Defines the grid that images are rendered for. Each image is rendered at the size of a cell of the grid, so larger
+    // grids render smaller images. It can be chosen by running with, for example, -Dfractals.grid.columns=10
+    // -Dfractals.grid.rows=10
+    public static GridConfig grid = GridConfig.fromSystemProperties();
+
+    //The number of points plotted by a probe, and how many times smaller than a full image its image is in each
+    // dimension
+    private static final int PROBE_POINTS = 4000;
+    private static final int PROBE_SCALE = 4;
+
+    //The images of Fractals that were already rendered
+    private static final RenderCache cache = RenderCache.fromSystemProperties();
+
+    //Runs the renders of every image
+    private static final RenderScheduler scheduler = new RenderScheduler();
+
+    //The renders that have not finished yet
+    private static final ArrayList<RenderJob> jobs = new ArrayList<>();
+
+    // Generates the image for a Fractal
+    static class ImageGenerator implements Callable<Void> {
+        private final Fractal f;
+        private final CancellationToken token;
+        //Set by whichever comes first: the render starting, or cancelRenders() finding that it never started. Only a
+        // render that started touches the Fractal, so only a render that never started is reset by cancelRenders().
+        private final AtomicBoolean claimed = new AtomicBoolean();
         //Defines the maximum number of times an aesthetically unpleasing Fractal can be mutated to attempt to create
         // a more pleasing image
         private static final int MAX_RETRIES = 5;
 
-        public ImageGeneratorThread(Fractal f) {
+        public ImageGenerator(Fractal f, CancellationToken token) {
             this.f = f;
+            this.token = token;
+        }
+
+        /**
+         * Claims the render so that it never starts. Returns false if it has already started.
+         *
+         * @return
+         */
+        boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+
+        /**
+         * Returns the random source of the given retry of the Fractal. Like the orbits of a render, it is seeded from
+         * the Equations the retry starts from, so a sparse Fractal is retried the same way on every thread.
+         *
+         * @param attempt
+         *
+         * @return
+         */
+        private RandomSource retryRandom(int attempt) {
+            return Randoms.create(Randoms.derive(f.getEquations().hashCode() * 31 + attempt));
         }
 
-        public void run() {
+        @Override
+        public Void call() {
+            //The render was canceled before it started and cancelRenders() has already reset the Fractal
+            if (!claim()) {
+                return null;
+            }
             try {
+                //Fractals with the same Equations as an earlier Fractal reuse its image
+                BufferedImage cached = cache.get(f.getRenderKey());
+                if (cached != null) {
+                    token.throwIfCanceled();
+                    f.setImage(cached);
+                    return null;
+                }
+
                 //Generate the image for the Fractal
-                f.generateImage();
+                f.generateImage(token);
 
                 //If we should perform filtering make sure the Fractal is not sparse
                 if (PERFORM_FILTERING) {
@@ -40,51 +108,193 @@ public class ImageManager {
                         retries = 0;
                         //If the fractal is aesthetically unpleasing, mutate it
                         while (f.isSparseImage() && retries++ < MAX_RETRIES) {
+                            token.throwIfCanceled();
                             f.discard();
-                            f.inPlaceMutate();
-                            f.generateImage();
+                            f.inPlaceMutate(retryRandom(retries));
+                            f.generateImage(token);
                         }
                         //If the Fractal is still sparse after MAX_RETRIES attempts of mutation,
                         // recreate the Fractal again
                         if (f.isSparseImage()) {
+                            token.throwIfCanceled();
                             f.discard();
-                            f.redo();
-                            f.generateImage();
+                            f.redo(retryRandom(MAX_RETRIES + 1));
+                            f.generateImage(token);
                         }
                     } while (f.isSparseImage());
                 }
 
                 //Load the image file for the Fractal
 
-                f.loadImage();
+                f.loadImage(token);
+
+                //Only images that passed the filter are cached. The key is taken again because the filter may have
+                // changed the Equations.
+                BufferedImage image = f.getImage();
+                if (image != null) {
+                    cache.put(f.getRenderKey(), image);
+                }
             } catch (InterruptedException e) {
                 System.err.println("Interrupted");
+            } catch (CancellationException e) {
+                //Free the memory and files of the unfinished image. The Fractal itself is always left consistent, so
+                // it can simply be rendered again. It is only reset here, once this render can no longer touch it, so
+                // that a new render of the Fractal cannot start while this one is still running.
+                f.discard();
+                f.renderCanceled();
+                throw e;
+            } catch (RuntimeException e) {
+                //Nobody waits on the Futures of most renders, so make sure failures are not lost
+                e.printStackTrace();
+                throw e;
             }
+            return null;
+        }
+    }
+
+    /**
+     * A render that has been handed to the scheduler
+     */
+    private static class RenderJob {
+        private final ImageGenerator generator;
+        private final Future<Void> future;
+
+        RenderJob(ImageGenerator generator, Future<Void> future) {
+            this.generator = generator;
+            this.future = future;
         }
     }
 
     /**
-     * Renders the image of the Fractal f. This method calls f's own generateImage() method
+     * Renders the image of the Fractal f for the grid that is currently shown. This method calls f's own
+     * generateImage() method but in a threaded fashion.
+     *
+     * @param f
+     *
+     * @return a Future that completes once the image has been loaded
+     */
+    public static Future<Void> renderImage(Fractal f) {
+        return renderImage(f, RenderPriority.VISIBLE);
+    }
+
+    /**
+     * Renders the image of the Fractal f with the given priority. This method calls f's own generateImage() method
      * but in a threaded fashion.
      *
      * @param f
+     * @param priority
+     *
+     * @return a Future that completes once the image has been loaded
+     */
+    public static Future<Void> renderImage(Fractal f, RenderPriority priority) {
+        synchronized (jobs) {
+            //Forget about renders that have already finished
+            for (int i = jobs.size() - 1; i >= 0; i--) {
+                if (jobs.get(i).future.isDone()) {
+                    jobs.remove(i);
+                }
+            }
+
+            CancellationToken token = new CancellationToken();
+            ImageGenerator generator = new ImageGenerator(f, token);
+            Future<Void> future = scheduler.submit(generator, priority, token);
+            jobs.add(new RenderJob(generator, future));
+            return future;
+        }
+    }
+
+    /**
+     * Renders a quick, small image of every given Fractal in parallel and returns how sparse each one is and what it
+     * roughly looks like. Probes are much cheaper than full renders, so they can be used to screen Fractals before
+     * their images are rendered. Probes start before any image that is waiting to be rendered.
+     *
+     * This waits for every probe, so it should not be called on the Swing event thread.
+     *
+     * @param fractals
+     *
+     * @return the probe of each Fractal, in the same order. Fractals whose probe failed have a null probe.
+     */
+    public static Probe[] probe(List<Fractal> fractals) {
+        return probe(fractals, new CancellationToken());
+    }
+
+    /**
+     * Probes every given Fractal like probe(List), stopping every probe once the given token is canceled.
+     *
+     * @param fractals
+     * @param token
+     *
+     * @return the probe of each Fractal, in the same order. Fractals whose probe failed have a null probe.
+     *
+     * @throws CancellationException if the token was canceled before every probe finished
+     */
+    public static Probe[] probe(List<Fractal> fractals, final CancellationToken token) {
+        //Probes are the same size for every grid, so that their scores are comparable and do not get noisier as the
+        // grid grows
+        Dimension size = Fractal.getImageSize(GridConfig.DEFAULT);
+        final int width = Math.max(1, size.width / PROBE_SCALE), height = Math.max(1, size.height / PROBE_SCALE);
+
+        ArrayList<Future<Probe>> futures = new ArrayList<>(fractals.size());
+        for (final Fractal f : fractals) {
+            futures.add(scheduler.submit(new Callable<Probe>() {
+                @Override
+                public Probe call() {
+                    Renderer renderer = new Renderer(width, height, PROBE_POINTS);
+                    renderer.setCancellationToken(token);
+                    Histogram histogram = renderer.renderHistogram(f, null);
+                    return new Probe(renderer.getScore(), histogram.perceptualHash());
+                }
+            }, RenderPriority.PROBE, token));
+        }
+
+        Probe[] probes = new Probe[fractals.size()];
+        for (int i = 0; i < probes.length; i++) {
+            try {
+                probes[i] = futures.get(i).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                //Probes that were canceled are reported once all of them have stopped
+                if (!(e.getCause() instanceof CancellationException)) {
+                    e.printStackTrace();
+                }
+            }
+        }
+        token.throwIfCanceled();
+        return probes;
+    }
+
+    /**
+     * Renders the images of the given Fractals in the background, so that they are ready if the user pages to them.
+     * Fractals that already have an image or are being rendered are skipped.
+     *
+     * @param fractals
      */
-    public static void renderImage(Fractal f) {
-        ImageGeneratorThread thread = new ImageGeneratorThread(f);
-        threads.add(thread);
-        thread.start();
+    public static void prefetchImages(Iterable<Fractal> fractals) {
+        for (Fractal f : fractals) {
+            if (!f.hasImage() && !f.isGenerating) {
+                f.isGenerating = true;
+                renderImage(f, RenderPriority.PREFETCH);
+            }
+        }
     }
 
     /**
-     * Halts all of the currently running threads
+     * Cancels every render that has not finished yet. Renders that are running stop at their next check of their
+     * CancellationToken and reset their Fractal themselves once they have stopped.
      */
-    public static void interruptThreads() {
-        for (ImageGeneratorThread thread : threads) {
-            //Ensure that unfinished fractals will restart rendering when they are revisited
-            thread.f.isGenerating = false;
-            //Kill the thread
-            thread.stop();
+    public static void cancelRenders() {
+        synchronized (jobs) {
+            for (RenderJob job : jobs) {
+                //Ensure that unfinished fractals will restart rendering when they are revisited. A render that is
+                // still running may write to its Fractal until it stops, so only renders that never started are reset
+                // here.
+                if (job.future.cancel(false) && job.generator.claim()) {
+                    job.generator.f.renderCanceled();
+                }
+            }
+            jobs.clear();
         }
-        threads.clear();
     }
 }
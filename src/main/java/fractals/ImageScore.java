@@ -0,0 +1,73 @@
+package fractals;
+
+/**
+ * Measures how sparse the image of a render is, directly from its Histogram.
+ *
+ * Three measures are combined:
+ * - Coverage: the fraction of the image that at least one point landed in.
+ * - Entropy: how evenly the points are spread over the pixels, from 0 (every point in one pixel) to 1 (the same
+ * number of points in every pixel of the image).
+ * - Bounding box fill: the fraction of the smallest rectangle around the lit pixels that is lit. Thin curves and
+ * scattered dots fill little of their bounding box.
+ *
+ * Scores are ordered from best to worst: images that are not sparse come before sparse ones, and images that cover
+ * more of the image with an even spread of points come first.
+ */
+public final class ImageScore implements Comparable<ImageScore> {
+    //The thresholds below which an image is considered sparse
+    static final double MIN_COVERAGE = 0.005;
+    static final double MIN_ENTROPY = 0.2;
+    static final double MIN_BOUNDING_BOX_FILL = 0.01;
+
+    private final double coverage, entropy, boundingBoxFill;
+
+    ImageScore(double coverage, double entropy, double boundingBoxFill) {
+        this.coverage = coverage;
+        this.entropy = entropy;
+        this.boundingBoxFill = boundingBoxFill;
+    }
+
+    public double getCoverage() {
+        return coverage;
+    }
+
+    public double getEntropy() {
+        return entropy;
+    }
+
+    public double getBoundingBoxFill() {
+        return boundingBoxFill;
+    }
+
+    /**
+     * Returns whether the image is sparse and thus aesthetically unpleasing.
+     *
+     * @return
+     */
+    public boolean isSparse() {
+        return coverage < MIN_COVERAGE || entropy < MIN_ENTROPY || boundingBoxFill < MIN_BOUNDING_BOX_FILL;
+    }
+
+    /**
+     * Returns a single value that grows with both the coverage and the entropy of the image.
+     *
+     * @return
+     */
+    public double getValue() {
+        return coverage * entropy;
+    }
+
+    @Override
+    public int compareTo(ImageScore other) {
+        if (isSparse() != other.isSparse()) {
+            return isSparse() ? 1 : -1;
+        }
+        return Double.compare(other.getValue(), getValue());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("coverage %.4f, entropy %.3f, bounding box fill %.3f", coverage, entropy,
+                boundingBoxFill);
+    }
+}
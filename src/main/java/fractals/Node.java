@@ -0,0 +1,380 @@
+package fractals;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashSet;
+
+/**
+ * Represents a single node in the expression tree of an equation
+ */
+class Node implements Serializable {
+    //Represents the value of the node
+    private String value;
+
+    //Represents the links for the current node
+    private Node left, right, middle, parent;
+
+    //The structural hash of the subtree rooted at the current Node, valid if hashValid is true. If a Node's hash is
+    // invalid, the hashes of all of its ancestors are invalid as well.
+    private transient int hash;
+    private transient boolean hashValid = false;
+
+    //Defines the set of unary operators supported by Node
+    private static final HashSet<String> unaryOperators = new HashSet<>(
+            Arrays.asList("sin", "cos", "abs"));
+    //Defines the set of binary operators supported by Node
+    private static final HashSet<String> binaryOperators = new HashSet<>(
+            Arrays.asList("*", "+", "-", "/", "^"));
+    //Defines the set of ternary operators supported by Node
+    private static final HashSet<String> ternaryOperators = new HashSet<>(Arrays.asList("if"));
+
+    //The operations that random Nodes are chosen from: every operator, and the constants and the position and color
+    // variables as leaves
+    private static final byte[] OPERATORS = {FlatTree.SIN, FlatTree.COS, FlatTree.ABS, FlatTree.ADD, FlatTree.SUB,
+            FlatTree.MUL, FlatTree.DIV, FlatTree.POW, FlatTree.IF};
+    private static final byte[] LEAVES = {FlatTree.CONST, FlatTree.X, FlatTree.Y, FlatTree.Z, FlatTree.R, FlatTree.B,
+            FlatTree.G};
+
+    /**
+     * Creates a Node with the given value
+     *
+     * @param value
+     */
+    public Node(String value) {
+        this.value = value;
+    }
+
+    /**
+     * Returns a random value. This value can be either an operator or a constant.
+     *
+     * @return
+     */
+    public static String getRandomValue() {
+        return getValue(getRandomOperation(Randoms.current(), EvolutionConfig.DEFAULT.getOperatorChance()));
+    }
+
+    /**
+     * Returns a random leaf value. This value can be either a constant or a variable.
+     *
+     * @return
+     */
+    public static String getRandomLeafValue() {
+        return getValue(getRandomLeaf(Randoms.current()));
+    }
+
+    /**
+     * Returns the value of a Node with the given operation. Constants are given a random value.
+     *
+     * @param op
+     *
+     * @return
+     */
+    private static String getValue(byte op) {
+        return op == FlatTree.CONST ? "" + getRandomConstant(Randoms.current()) : FlatTree.name(op);
+    }
+
+    /**
+     * Returns a random operation for a Node of an encoded tree. This can be either an operator or a leaf.
+     *
+     * @param random
+     * @param operatorChance the chance of returning an operator
+     *
+     * @return
+     */
+    static byte getRandomOperation(RandomSource random, double operatorChance) {
+        //Determine if the method will return an operator or a leaf
+        if (random.nextDouble() < operatorChance) {
+            return OPERATORS[random.nextInt(OPERATORS.length)];
+        }
+        return getRandomLeaf(random);
+    }
+
+    /**
+     * Returns a random leaf operation for a Node of an encoded tree: either a constant or one of the variables.
+     *
+     * @param random
+     *
+     * @return
+     */
+    static byte getRandomLeaf(RandomSource random) {
+        return LEAVES[random.nextInt(LEAVES.length)];
+    }
+
+    /**
+     * Returns a random value for a constant Node
+     *
+     * @param random
+     *
+     * @return
+     */
+    static double getRandomConstant(RandomSource random) {
+        //A constant between -2 to 2
+        return random.nextDouble(-2, 2);
+    }
+
+    /**
+     * Returns whether the Node represents a mathematical constant
+     *
+     * @return
+     */
+    public boolean isNumber() {
+        //Try parsing the value as a double
+        try {
+            Double.parseDouble(value);
+        } catch (Exception e) {
+            //Failure to parse the value as a double implies that the value is not a constant
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the parent of the current Node
+     *
+     * @return
+     */
+    public Node getParent() {
+        return parent;
+    }
+
+    /**
+     * Sets the parent pointer of the current Node to the given Node. The child pointers of the current Node are not
+     * altered.
+     * The old parent Node is returned.
+     *
+     * @param parent
+     *
+     * @return
+     */
+    public Node setParent(Node parent) {
+        Node ans = this.parent;
+        this.parent = parent;
+        return ans;
+    }
+
+    /**
+     * Returns whether the current Node has no children
+     *
+     * @return
+     */
+    public boolean isLeaf() {
+        return left == null && right == null && middle == null;
+    }
+
+    /**
+     * Returns the value of the current Node
+     *
+     * @return
+     */
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * Sets the value of the current Node to the given value
+     *
+     * @param value
+     */
+    public void setValue(String value) {
+        this.value = value;
+        invalidateHash();
+    }
+
+    /**
+     * Sets the left child pointer for the current Node to the given Node.
+     * Returns the old left child Node.
+     *
+     * @param newNode
+     *
+     * @return
+     */
+    public Node setLeft(Node newNode) {
+        Node oldNode = left;
+        left = newNode;
+        invalidateHash();
+        return oldNode;
+    }
+
+    /**
+     * Returns whether the current Node represents an operator
+     *
+     * @return
+     */
+    public boolean isOperator() {
+        return isUnaryOperator() || isBinaryOperator() || isTernaryOperator();
+    }
+
+    /**
+     * Returns whether the current Node represents a unary operator
+     *
+     * @return
+     */
+    public boolean isUnaryOperator() {
+        return unaryOperators.contains(value);
+    }
+
+    /**
+     * Returns whether the current Node represents a binary operator
+     *
+     * @return
+     */
+    public boolean isBinaryOperator() {
+        return binaryOperators.contains(value);
+    }
+
+    /**
+     * Returns whether the current Node represents a ternary operator
+     *
+     * @return
+     */
+    public boolean isTernaryOperator() {
+        return ternaryOperators.contains(value);
+    }
+
+    /**
+     * Sets the right child pointer of the current Node to the given Node.
+     * The old right child Node is returned.
+     *
+     * @param newNode
+     *
+     * @return
+     */
+    public Node setRight(Node newNode) {
+        Node oldNode = right;
+        right = newNode;
+        invalidateHash();
+        return oldNode;
+    }
+
+    /**
+     * Sets the middle child pointer of the current Node to the given Node.
+     * The old middle child Node is returned.
+     *
+     * @param newNode
+     *
+     * @return
+     */
+    public Node setMiddle(Node newNode) {
+        Node oldNode = middle;
+        middle = newNode;
+        invalidateHash();
+        return oldNode;
+    }
+
+    /**
+     * Returns the left child of the current Node
+     *
+     * @return
+     */
+    public Node getLeft() {
+        return left;
+    }
+
+    /**
+     * Returns the right child of the current Node
+     *
+     * @return
+     */
+    public Node getRight() {
+        return right;
+    }
+
+    /**
+     * Returns the middle child of the current Node
+     *
+     * @return
+     */
+    public Node getMiddle() {
+        return middle;
+    }
+
+    public String toString() {
+        return value;
+    }
+
+    /**
+     * Marks the hash of the current Node and of its ancestors as invalid after the subtree has changed. Ancestors of
+     * a Node whose hash is already invalid are invalid too, so the walk stops there.
+     */
+    private void invalidateHash() {
+        for (Node n = this; n != null && n.hashValid; n = n.parent) {
+            n.hashValid = false;
+        }
+    }
+
+    /**
+     * Returns a hash of the subtree rooted at the current Node. Subtrees with the same values in the same places have
+     * the same hash, and constants are compared by their numeric value. The hash is cached until the subtree changes.
+     *
+     * @return
+     */
+    @Override
+    public int hashCode() {
+        if (!hashValid) {
+            int h = isNumber() ? Double.valueOf(value).hashCode() : value.hashCode();
+            h = 31 * h + (left == null ? 0 : left.hashCode());
+            h = 31 * h + (middle == null ? 0 : middle.hashCode());
+            h = 31 * h + (right == null ? 0 : right.hashCode());
+            hash = h;
+            hashValid = true;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns whether the given Object is a Node whose subtree has the same values in the same places as the subtree
+     * of the current Node.
+     *
+     * @param o
+     *
+     * @return
+     */
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Node)) {
+            return false;
+        }
+        Node other = (Node) o;
+        if (hashCode() != other.hashCode()) {
+            return false;
+        }
+        if (isNumber() ? !other.isNumber() || Double.compare(Double.parseDouble(value),
+                Double.parseDouble(other.value)) != 0 : !value.equals(other.value)) {
+            return false;
+        }
+        return equal(left, other.left) && equal(middle, other.middle) && equal(right, other.right);
+    }
+
+    private static boolean equal(Node a, Node b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+    /**
+     * Returns a cloned copy of the current Node. Any changes made to a cloned copy will not affect the original Node.
+     *
+     * Cloning a Node will also clone all of its descendants, thus creating a cloned subtree rooted at the current
+     * Node.
+     *
+     * @return
+     */
+    public Node clone() {
+        Node n = new Node(value);
+        //Clone the left, middle, and right subtrees if they exist
+        if (left != null) {
+            n.left = left.clone();
+            n.left.setParent(n);
+        }
+        if (right != null) {
+            n.right = right.clone();
+            n.right.setParent(n);
+        }
+        if (middle != null) {
+            n.middle = middle.clone();
+            n.middle.setParent(n);
+        }
+        return n;
+    }
+}
@@ -0,0 +1,127 @@
+package fractals;
+
+/**
+ * Watches the points of an orbit as they are iterated and detects orbits that cannot contribute anything more to the
+ * image, so that their iteration can be stopped:
+ * - Divergence: the x or y value of every point of a whole window is NaN, infinite, or beyond OVERFLOW.
+ * - Cycles: all six values of a point are repeated, up to a small tolerance. Cycles with a length up to the window
+ * size are found using Brent's algorithm, which only needs to remember a single earlier point.
+ * - Stagnation: the x and y values of all of the points of a window lie within a tiny region, so they are all drawn
+ * to the same pixel.
+ */
+class OrbitMonitor {
+    //The default number of points that each check looks at
+    static final int DEFAULT_WINDOW = 1024;
+
+    //Points with a coordinate larger than this are treated as having escaped to infinity
+    private static final double OVERFLOW = 1e150;
+    //Points closer than this, relative to their size, are considered equal
+    private static final double CYCLE_TOLERANCE = 1e-10;
+    //A window of points whose extent is smaller than this, relative to its position, is stagnant
+    private static final double STAGNATION_TOLERANCE = 1e-7;
+
+    private final int window;
+    private OrbitOutcome outcome = OrbitOutcome.ATTRACTOR;
+
+    //The number of consecutive points that were not finite
+    private int diverged = 0;
+
+    //The point that later points are compared to, the number of points since it was saved, and the number of points
+    // after which it is replaced
+    private final double[] saved = new double[FractalKernel.SIZE];
+    private boolean hasSaved = false;
+    private int sinceSaved = 0, power = 1;
+
+    //The extent of the points of the current window
+    private double minX, maxX, minY, maxY;
+    private int windowPoints = 0;
+
+    /**
+     * Creates a monitor whose checks each look at the given number of points.
+     *
+     * @param window
+     */
+    OrbitMonitor(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid orbit monitor window: " + window);
+        }
+        this.window = window;
+    }
+
+    /**
+     * Observes the next point of the orbit.
+     *
+     * @param state the values of the point, indexed like FractalKernel.step()
+     *
+     * @return true if the orbit should be stopped, in which case getOutcome() tells why
+     */
+    boolean observe(double[] state) {
+        double x = state[FractalKernel.X], y = state[FractalKernel.Y];
+        if (!(Math.abs(x) <= OVERFLOW && Math.abs(y) <= OVERFLOW)) {
+            if (++diverged >= window) {
+                outcome = OrbitOutcome.DIVERGED;
+                return true;
+            }
+            return false;
+        }
+        diverged = 0;
+
+        //Brent's algorithm: compare every point to the saved point, which is replaced after 1, 2, 4, ... points
+        if (hasSaved && isSaved(state)) {
+            outcome = OrbitOutcome.CYCLE;
+            return true;
+        }
+        if (++sinceSaved == power) {
+            System.arraycopy(state, 0, saved, 0, saved.length);
+            hasSaved = true;
+            sinceSaved = 0;
+            power = Math.min(2 * power, window);
+        }
+
+        if (windowPoints == 0) {
+            minX = maxX = x;
+            minY = maxY = y;
+        }
+        else {
+            minX = Math.min(minX, x);
+            maxX = Math.max(maxX, x);
+            minY = Math.min(minY, y);
+            maxY = Math.max(maxY, y);
+        }
+        if (++windowPoints == window) {
+            windowPoints = 0;
+            if (maxX - minX <= STAGNATION_TOLERANCE * (1 + Math.abs(x)) &&
+                    maxY - minY <= STAGNATION_TOLERANCE * (1 + Math.abs(y))) {
+                outcome = OrbitOutcome.STAGNANT;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns why the orbit was stopped, or ATTRACTOR if it has not been stopped.
+     *
+     * @return
+     */
+    OrbitOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns whether every value of the given point is equal to the saved point, up to CYCLE_TOLERANCE.
+     *
+     * @param state
+     *
+     * @return
+     */
+    private boolean isSaved(double[] state) {
+        for (int i = 0; i < saved.length; i++) {
+            double value = state[i];
+            if (!(Math.abs(value - saved[i]) <= CYCLE_TOLERANCE * (1 + Math.abs(value)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
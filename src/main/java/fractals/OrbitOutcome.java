@@ -0,0 +1,16 @@
+package fractals;
+
+/**
+ * Describes how the orbit of a render behaved, as detected by an OrbitMonitor.
+ */
+public enum OrbitOutcome {
+    //The orbit kept visiting new points until every point was iterated
+    ATTRACTOR,
+    //The orbit escaped to infinity or its values became NaN
+    DIVERGED,
+    //The orbit returned to a point it had already visited, so it repeats the same points forever. Fixed points are
+    // cycles of length 1.
+    CYCLE,
+    //The orbit stayed within a tiny region without repeating a point
+    STAGNANT
+}
@@ -0,0 +1,41 @@
+package fractals;
+
+/**
+ * The result of a probe: a quick, small render of a Fractal that is used to judge it before its full image is
+ * rendered.
+ *
+ * Besides the ImageScore of the probe image, a probe has a perceptual hash: 64 bits that describe the rough shape of
+ * the image. Images that look alike have hashes that differ in only a few bits, even if they were rendered from
+ * different Equations or with different random seeds.
+ */
+public final class Probe {
+    //Probes whose perceptual hashes differ in at most this many bits show nearly the same image
+    static final int NEAR_DUPLICATE_BITS = 6;
+
+    private final ImageScore score;
+    private final long perceptualHash;
+
+    Probe(ImageScore score, long perceptualHash) {
+        this.score = score;
+        this.perceptualHash = perceptualHash;
+    }
+
+    public ImageScore getScore() {
+        return score;
+    }
+
+    public long getPerceptualHash() {
+        return perceptualHash;
+    }
+
+    /**
+     * Returns whether the given probe shows nearly the same image as the current probe.
+     *
+     * @param other
+     *
+     * @return
+     */
+    public boolean isNearDuplicate(Probe other) {
+        return Long.bitCount(perceptualHash ^ other.perceptualHash) <= NEAR_DUPLICATE_BITS;
+    }
+}
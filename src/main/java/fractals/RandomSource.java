@@ -0,0 +1,74 @@
+package fractals;
+
+/**
+ * A source of random numbers. Every method only updates the state of the source and never allocates, so random numbers
+ * can be drawn in the innermost loops of the genetic operations and of the renderer.
+ *
+ * Sources are not thread-safe. Randoms.current() gives every thread its own source.
+ */
+public abstract class RandomSource {
+    /**
+     * Creates RandomSources, so that the generator used by the whole program can be replaced.
+     */
+    public interface Factory {
+        /**
+         * Returns a new source whose sequence of numbers is completely determined by the given seed.
+         *
+         * @param seed
+         *
+         * @return
+         */
+        RandomSource create(long seed);
+    }
+
+    /**
+     * Returns a uniformly distributed long. All 64 bits are random.
+     *
+     * @return
+     */
+    public abstract long nextLong();
+
+    /**
+     * Returns a uniformly distributed double in the range [0,1)
+     *
+     * @return
+     */
+    public double nextDouble() {
+        //The top 53 bits fill the mantissa of the double
+        return (nextLong() >>> 11) * 0x1.0p-53;
+    }
+
+    /**
+     * Returns a uniformly distributed double in the range [start,end)
+     *
+     * @param start
+     * @param end
+     *
+     * @return
+     */
+    public double nextDouble(double start, double end) {
+        return nextDouble() * (end - start) + start;
+    }
+
+    /**
+     * Returns a uniformly distributed int in the range [0,bound)
+     *
+     * @param bound
+     *
+     * @return
+     */
+    public int nextInt(int bound) {
+        if (bound <= 0) {
+            throw new IllegalArgumentException("Invalid bound: " + bound);
+        }
+        //Lemire's multiply-shift method, rejecting the few values that would make some results more likely
+        long product = (nextLong() >>> 32) * bound;
+        if ((product & 0xFFFFFFFFL) < bound) {
+            long threshold = (0x100000000L - bound) % bound;
+            while ((product & 0xFFFFFFFFL) < threshold) {
+                product = (nextLong() >>> 32) * bound;
+            }
+        }
+        return (int) (product >>> 32);
+    }
+}
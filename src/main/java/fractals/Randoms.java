@@ -0,0 +1,127 @@
+package fractals;
+
+/**
+ * Gives every thread its own RandomSource, all derived from a single session seed.
+ *
+ * The genetic operations and the renderer draw their random numbers from here instead of Math.random(), which shares
+ * one synchronized generator between all threads. Because every generator is seeded from the session seed and the name
+ * of its thread, a session that is started with the same seed and makes the same choices creates the same Fractals and
+ * renders the same images.
+ *
+ * The session seed is read from the fractals.seed system property, for example: -Dfractals.seed=42. Without it, a seed
+ * is chosen from the clock.
+ */
+public final class Randoms {
+    //The system property that sets the session seed
+    public static final String SEED_PROPERTY = "fractals.seed";
+
+    //The increment of the SplitMix64 generator: the odd integer closest to 2^64 divided by the golden ratio
+    static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static volatile long seed = Long.getLong(SEED_PROPERTY, mix(System.nanoTime()));
+    private static volatile RandomSource.Factory factory = Xoshiro256.FACTORY;
+    //Increased whenever the seed or the factory changes, so that every thread replaces its generator
+    private static volatile int epoch = 0;
+
+    //The generator of every thread and the epoch it was created in
+    private static final ThreadLocal<Local> LOCAL = new ThreadLocal<Local>() {
+        @Override
+        protected Local initialValue() {
+            return new Local();
+        }
+    };
+
+    private static final class Local {
+        private int epoch = -1;
+        private RandomSource source;
+    }
+
+    private Randoms() {
+    }
+
+    /**
+     * Returns the generator of the current thread. The generator is created the first time it is asked for after the
+     * seed or the factory has changed; afterwards this method does not allocate.
+     *
+     * @return
+     */
+    public static RandomSource current() {
+        Local local = LOCAL.get();
+        int current = epoch;
+        if (local.epoch != current) {
+            local.source = factory.create(mix(seed ^ Thread.currentThread().getName().hashCode()));
+            local.epoch = current;
+        }
+        return local.source;
+    }
+
+    /**
+     * Restarts every thread's generator from the given session seed.
+     *
+     * @param newSeed
+     */
+    public static synchronized void setSeed(long newSeed) {
+        seed = newSeed;
+        epoch++;
+    }
+
+    /**
+     * Returns the session seed
+     *
+     * @return
+     */
+    public static long getSeed() {
+        return seed;
+    }
+
+    /**
+     * Replaces the generator used by every thread. The generators are restarted from the session seed.
+     *
+     * @param newFactory
+     */
+    public static synchronized void setFactory(RandomSource.Factory newFactory) {
+        if (newFactory == null) {
+            throw new IllegalArgumentException("The factory cannot be null");
+        }
+        factory = newFactory;
+        epoch++;
+    }
+
+    /**
+     * Returns a new generator, independent of every thread's generator, whose sequence is determined by the given
+     * seed.
+     *
+     * @param seed
+     *
+     * @return
+     */
+    public static RandomSource create(long seed) {
+        return factory.create(seed);
+    }
+
+    /**
+     * Returns a seed that is determined by the session seed and the given key. Work that is not always done by the
+     * same thread, such as rendering, uses this to stay reproducible.
+     *
+     * @param key
+     *
+     * @return
+     */
+    public static long derive(long key) {
+        return mix(seed + GOLDEN_GAMMA * key);
+    }
+
+    /**
+     * Scrambles the bits of a seed (the SplitMix64 finalizer) so that consecutive seeds give unrelated random
+     * sequences.
+     *
+     * @param z
+     *
+     * @return
+     */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
@@ -0,0 +1,244 @@
+package fractals;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caches rendered images by the content they were rendered from.
+ *
+ * Images are stored under a key that is the SHA-256 hash of the text of the six Equations of a Fractal and the
+ * parameters of the render, so identical Fractals share their image no matter which objects they are made of. The
+ * cache has two tiers: the most recently used images are kept in memory, up to a total number of bytes, and images can
+ * optionally also be saved as PNG files in a directory of limited size. When a tier is full, its least recently used
+ * images are evicted.
+ */
+public class RenderCache {
+    //The system properties that set the size of each tier in megabytes, for example: -Dfractals.cache.disk=256
+    public static final String MEMORY_PROPERTY = "fractals.cache.memory";
+    public static final String DISK_PROPERTY = "fractals.cache.disk";
+
+    //The default size of each tier in megabytes. The disk tier is disabled by default.
+    private static final long DEFAULT_MEMORY_MEGABYTES = 64;
+    private static final long DEFAULT_DISK_MEGABYTES = 0;
+
+    //The directory the disk tier is stored in
+    private static final Path DISK_DIRECTORY = Paths.get(Fractal.IMAGE_PATH, "cache");
+
+    private final long memoryLimit, diskLimit;
+    private final Path directory;
+
+    //The images in memory, from least to most recently used
+    private final LinkedHashMap<String, BufferedImage> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes = 0;
+
+    //Guards evictions from the disk tier
+    private final Object diskLock = new Object();
+
+    /**
+     * Creates a cache with the given limits. The disk tier is disabled if its limit is 0.
+     *
+     * @param memoryLimit the number of bytes of images kept in memory
+     * @param directory   the directory the disk tier is stored in
+     * @param diskLimit   the number of bytes of PNG files kept on disk
+     */
+    public RenderCache(long memoryLimit, Path directory, long diskLimit) {
+        if (memoryLimit < 0 || diskLimit < 0) {
+            throw new IllegalArgumentException("Invalid cache size: " + memoryLimit + " bytes in memory, " +
+                    diskLimit + " bytes on disk");
+        }
+        this.memoryLimit = memoryLimit;
+        this.directory = directory;
+        this.diskLimit = diskLimit;
+    }
+
+    /**
+     * Creates a cache whose tiers are sized by the fractals.cache.memory and fractals.cache.disk system properties.
+     *
+     * @return
+     */
+    public static RenderCache fromSystemProperties() {
+        long megabyte = 1024 * 1024;
+        return new RenderCache(Long.getLong(MEMORY_PROPERTY, DEFAULT_MEMORY_MEGABYTES) * megabyte, DISK_DIRECTORY,
+                Long.getLong(DISK_PROPERTY, DEFAULT_DISK_MEGABYTES) * megabyte);
+    }
+
+    /**
+     * Returns the key for the given parts, such as the text of Equations and render parameters: the hexadecimal
+     * SHA-256 hash of the parts separated by newlines.
+     *
+     * @param parts
+     *
+     * @return
+     */
+    public static String key(String... parts) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String part : parts) {
+                digest.update(part.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) '\n');
+            }
+
+            StringBuilder key = new StringBuilder();
+            for (byte b : digest.digest()) {
+                key.append(String.format("%02x", b));
+            }
+            return key.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Returns the image stored under the given key, or null if neither tier has it. Images found on disk are also
+     * added to the memory tier.
+     *
+     * @param key
+     *
+     * @return
+     */
+    public BufferedImage get(String key) {
+        synchronized (memory) {
+            BufferedImage image = memory.get(key);
+            if (image != null) {
+                return image;
+            }
+        }
+        if (diskLimit == 0) {
+            return null;
+        }
+
+        File file = directory.resolve(key + ".png").toFile();
+        try {
+            BufferedImage image = ImageIO.read(file);
+            if (image == null) {
+                return null;
+            }
+            //Mark the file as recently used
+            file.setLastModified(System.currentTimeMillis());
+            putInMemory(key, image);
+            return image;
+        } catch (IOException e) {
+            //The file does not exist or was evicted while it was being read
+            return null;
+        }
+    }
+
+    /**
+     * Stores the given image under the given key in both tiers.
+     *
+     * @param key
+     * @param image
+     */
+    public void put(String key, BufferedImage image) {
+        putInMemory(key, image);
+        if (diskLimit > 0) {
+            try {
+                putOnDisk(key, image);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of images in the memory tier.
+     *
+     * @return
+     */
+    public long getMemoryBytes() {
+        synchronized (memory) {
+            return memoryBytes;
+        }
+    }
+
+    private void putInMemory(String key, BufferedImage image) {
+        synchronized (memory) {
+            BufferedImage old = memory.put(key, image);
+            if (old != null) {
+                memoryBytes -= bytes(old);
+            }
+            memoryBytes += bytes(image);
+
+            //Evict the least recently used images
+            Iterator<Map.Entry<String, BufferedImage>> entries = memory.entrySet().iterator();
+            while (memoryBytes > memoryLimit && entries.hasNext()) {
+                memoryBytes -= bytes(entries.next().getValue());
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Saves the image to the disk tier and evicts the least recently used files if the tier is too large. The image
+     * is written to a temporary file first, so the tier never contains half-written images.
+     *
+     * @param key
+     * @param image
+     *
+     * @throws IOException
+     */
+    private void putOnDisk(String key, BufferedImage image) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = Files.createTempFile(directory, key, ".tmp");
+        try {
+            ImageIO.write(image, "png", temporary.toFile());
+            Files.move(temporary, directory.resolve(key + ".png"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+
+        synchronized (diskLock) {
+            File[] files = directory.toFile().listFiles();
+            if (files == null) {
+                return;
+            }
+            long total = 0;
+            for (File file : files) {
+                total += file.length();
+            }
+            if (total <= diskLimit) {
+                return;
+            }
+
+            Arrays.sort(files, new Comparator<File>() {
+                @Override
+                public int compare(File a, File b) {
+                    return Long.compare(a.lastModified(), b.lastModified());
+                }
+            });
+            for (int i = 0; i < files.length && total > diskLimit; i++) {
+                long length = files[i].length();
+                if (files[i].getName().endsWith(".png") && files[i].delete()) {
+                    total -= length;
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes the pixels of the given image take up in memory, assuming 4 bytes per pixel.
+     *
+     * @param image
+     *
+     * @return
+     */
+    private static long bytes(BufferedImage image) {
+        return 4L * image.getWidth() * image.getHeight();
+    }
+}
@@ -0,0 +1,28 @@
+package fractals;
+
+/**
+ * Defines which backend is used to render the images of Fractals.
+ */
+public enum RenderMode {
+    //Iterate the Equations in-process with the Renderer class
+    JAVA,
+    //Call the C-Backend and read back the PNG files that it saves
+    NATIVE;
+
+    //The system property used to choose the backend, for example: -Dfractals.renderer=native
+    public static final String PROPERTY = "fractals.renderer";
+
+    /**
+     * Returns the RenderMode named by the fractals.renderer system property. The Java renderer is used if the property
+     * is not set or is not recognized.
+     *
+     * @return
+     */
+    public static RenderMode fromSystemProperty() {
+        String value = System.getProperty(PROPERTY, "");
+        if (value.equalsIgnoreCase("native") || value.equalsIgnoreCase("c")) {
+            return NATIVE;
+        }
+        return JAVA;
+    }
+}
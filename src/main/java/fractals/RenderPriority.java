@@ -0,0 +1,17 @@
+package fractals;
+
+/**
+ * Defines the order in which the RenderScheduler starts waiting renders. Renders with a priority that is declared
+ * earlier are always started first.
+ */
+public enum RenderPriority {
+    //Quick renders that screen the candidates of the next generation before it is shown. The user is waiting for
+    // them, and they are much cheaper than any image.
+    PROBE,
+    //Images of the generation that is currently shown
+    VISIBLE,
+    //Images of neighbouring generations that the user is likely to page to next
+    PREFETCH,
+    //Images that are saved or processed without being shown
+    EXPORT
+}
@@ -0,0 +1,117 @@
+package fractals;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs renders on a fixed number of threads.
+ *
+ * Renders that cannot start immediately wait in a queue ordered by their RenderPriority, and renders of the same
+ * priority start in the order they were submitted. Every render is handed a CancellationToken; canceling the Future
+ * returned by submit() cancels the token, so a render that is already running stops at its next check.
+ */
+public class RenderScheduler {
+    //Numbers the threads of all schedulers
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private final ThreadPoolExecutor executor;
+    //Orders renders of the same priority
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Creates a scheduler with one thread per available processor.
+     */
+    public RenderScheduler() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a scheduler that runs at most the given number of renders at once.
+     *
+     * @param threads
+     */
+    public RenderScheduler(int threads) {
+        if (threads <= 0) {
+            throw new IllegalArgumentException("Invalid number of render threads: " + threads);
+        }
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "render-" + threadCount.incrementAndGet());
+                //Waiting renders should not keep the program from exiting
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Queues the given render. The render should check the given token regularly.
+     *
+     * @param render
+     * @param priority
+     * @param token
+     * @param <T>
+     *
+     * @return a Future that can be used to wait for the result of the render or to cancel it
+     */
+    public <T> Future<T> submit(Callable<T> render, RenderPriority priority, CancellationToken token) {
+        Task<T> task = new Task<>(render, priority, sequence.getAndIncrement(), token);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Returns the number of renders that are waiting to start.
+     *
+     * @return
+     */
+    public int getQueuedCount() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Stops accepting renders. Renders that were already submitted still run.
+     */
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    /**
+     * A queued render
+     */
+    private static class Task<T> extends FutureTask<T> implements Comparable<Task<?>> {
+        private final RenderPriority priority;
+        private final long sequence;
+        private final CancellationToken token;
+
+        Task(Callable<T> render, RenderPriority priority, long sequence, CancellationToken token) {
+            super(render);
+            this.priority = priority;
+            this.sequence = sequence;
+            this.token = token;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            token.cancel();
+            return super.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public int compareTo(Task<?> other) {
+            if (priority != other.priority) {
+                return priority.compareTo(other.priority);
+            }
+            return Long.compare(sequence, other.sequence);
+        }
+    }
+}
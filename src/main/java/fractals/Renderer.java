@@ -0,0 +1,652 @@
+package fractals;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Renders the image of a Fractal in-process.
+ *
+ * The Equations of the Fractal are iterated directly: starting from a seed point, each step feeds the current
+ * (x,y,z,r,g,b) values into the six Equations to compute the next point. Each point is projected onto the x-y plane
+ * and plotted into an in-memory raster using the color given by the r, g, and b values. This avoids starting the
+ * C-Backend and encoding and decoding a PNG file for every image.
+ *
+ * A render can be split across several independent orbits that run in parallel. Each orbit starts from its own
+ * randomly perturbed seed point and discards its first few points (the burn-in) so that the points it plots lie on
+ * the attractor rather than on the path leading to it. The first few thousand points of all orbits (the sample) fix
+ * the part of the plane that is drawn and the range of every color channel. After that every point is added straight
+ * into the Histogram of its orbit, so no points are kept and a render takes the same memory for any number of points.
+ * The histograms of the orbits are merged into the Histogram that is tone mapped into the image.
+ *
+ * Renders are progressive: the orbits stop at a few snapshot sizes on the way to the full number of points, and the
+ * Histogram of the points so far is handed to a Listener so that a coarse image can be shown early. A render can be
+ * canceled from another thread once its image is no longer needed.
+ *
+ * Every orbit is watched by an OrbitMonitor and stops as soon as it diverges, cycles, or stagnates, since it cannot
+ * light any new pixels after that. A render whose orbits have all stopped finishes immediately.
+ *
+ * Renders whose orbits have clearly collapsed onto a few points or escaped to infinity are terminated early: after a
+ * couple of thousand points such a render has lit only a handful of pixels, and plotting the rest of its points would
+ * only produce a sparse image.
+ */
+public class Renderer {
+    //The number of points plotted for each image. This matches the "-p" argument passed to the C-Backend.
+    public static final int DEFAULT_POINTS = 100000;
+
+    //The number of points at which progressive renders publish a snapshot before they finish
+    public static final int[] DEFAULT_SNAPSHOTS = {5000, 20000};
+
+    //The number of points each orbit discards before plotting
+    public static final int DEFAULT_BURN_IN = 100;
+
+    //The fraction of the image left empty around the plotted points
+    private static final double MARGIN = 0.05;
+
+    //The number of points, over all orbits, whose ranges fix the bounds of the image and of the colors
+    private static final int SAMPLE_POINTS = 2000;
+    //How far the bounds are widened beyond the range of the sample on each side, as a fraction of that range, so that
+    // points the sample did not reach are still drawn
+    private static final double SAMPLE_PADDING = 0.1;
+
+    //The value of every variable at the start of an orbit, before it is perturbed
+    private static final double SEED = 0.1;
+    //The maximum distance a variable is perturbed from SEED at the start of an orbit
+    private static final double SEED_JITTER = 0.05;
+
+    //The channels recorded for every point of the sample
+    private static final int PX = 0, PY = 1, PR = 2, PG = 3, PB = 4, CHANNELS = 5;
+
+    //The number of points an orbit iterates between checks for cancellation
+    private static final int CANCEL_CHECK_INTERVAL = 4096;
+
+    //The number of points after which a render checks whether it should terminate early
+    private static final int EARLY_CHECK_POINTS = 2000;
+    //Renders that have lit fewer pixels than this at the early check are terminated
+    private static final int EARLY_MIN_PIXELS = 32;
+
+    //Runs the orbits of every parallel render
+    private static final ForkJoinPool pool = new ForkJoinPool();
+
+    private final int width, height, points;
+    private int orbits = 1;
+    private int burnIn = DEFAULT_BURN_IN;
+    private long seed;
+    private boolean deterministic = false;
+    private ToneMap toneMap = ToneMap.DEFAULT;
+    private int[] snapshots = DEFAULT_SNAPSHOTS;
+    private CancellationToken token = new CancellationToken();
+    private boolean earlyTermination = true;
+    private int monitorWindow = OrbitMonitor.DEFAULT_WINDOW;
+
+    //The score of the histogram plotted last by the last call to render()
+    private ImageScore score;
+    //Whether the last call to render() was terminated early
+    private boolean terminatedEarly;
+    //How the orbits of the last call to render() behaved
+    private OrbitOutcome outcome;
+
+    /**
+     * Creates a Renderer that produces images of the given size using the default number of points.
+     *
+     * @param width
+     * @param height
+     */
+    public Renderer(int width, int height) {
+        this(width, height, DEFAULT_POINTS);
+    }
+
+    /**
+     * Creates a Renderer that produces images of the given size by plotting the given number of points.
+     *
+     * @param width
+     * @param height
+     * @param points
+     */
+    public Renderer(int width, int height, int points) {
+        if (width <= 0 || height <= 0 || points <= 0) {
+            throw new IllegalArgumentException("Invalid render size: " + width + "x" + height + ", " + points + " " +
+                    "points");
+        }
+        this.width = width;
+        this.height = height;
+        this.points = points;
+    }
+
+    /**
+     * Sets the number of independent orbits the points are split between. Orbits are iterated in parallel, so this is
+     * also the number of threads the render can use.
+     *
+     * @param orbits
+     */
+    public void setOrbits(int orbits) {
+        if (orbits <= 0) {
+            throw new IllegalArgumentException("Invalid number of orbits: " + orbits);
+        }
+        this.orbits = orbits;
+    }
+
+    /**
+     * Sets the number of points each orbit discards before it starts plotting.
+     *
+     * @param burnIn
+     */
+    public void setBurnIn(int burnIn) {
+        if (burnIn < 0) {
+            throw new IllegalArgumentException("Invalid burn-in: " + burnIn);
+        }
+        this.burnIn = burnIn;
+    }
+
+    /**
+     * Makes renders deterministic: rendering the same Fractal with the same seed and number of orbits always produces
+     * the same image. Without a seed, the start of every orbit is derived from the session seed of Randoms and the
+     * Equations of the Fractal, so a session started from the same seed renders the same images.
+     *
+     * @param seed
+     */
+    public void setSeed(long seed) {
+        this.seed = seed;
+        deterministic = true;
+    }
+
+    /**
+     * Sets the parameters that render() tone maps its images with.
+     *
+     * @param toneMap
+     */
+    public void setToneMap(ToneMap toneMap) {
+        this.toneMap = toneMap;
+    }
+
+    /**
+     * Sets the number of points at which progressive renders publish a snapshot. Sizes that are not smaller than the
+     * full number of points are ignored.
+     *
+     * @param snapshots
+     */
+    public void setSnapshots(int... snapshots) {
+        this.snapshots = snapshots.clone();
+        Arrays.sort(this.snapshots);
+    }
+
+    /**
+     * Sets whether renders whose orbits have collapsed or escaped are terminated after the first few thousand points.
+     * Early termination is enabled by default.
+     *
+     * @param earlyTermination
+     */
+    public void setEarlyTermination(boolean earlyTermination) {
+        this.earlyTermination = earlyTermination;
+    }
+
+    /**
+     * Sets the number of points that the OrbitMonitor of each orbit looks at to detect divergence, cycles, and
+     * stagnation. Larger windows find longer cycles but stop diverged orbits later.
+     *
+     * @param window
+     */
+    public void setMonitorWindow(int window) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid orbit monitor window: " + window);
+        }
+        monitorWindow = window;
+    }
+
+    /**
+     * Sets the token that renders check for cancellation. Once the token is canceled, the current render, and every
+     * later one, throws a CancellationException.
+     *
+     * @param token
+     */
+    public void setCancellationToken(CancellationToken token) {
+        this.token = token;
+    }
+
+    /**
+     * Stops the current render, and every later one, as soon as possible by canceling the CancellationToken of this
+     * Renderer.
+     */
+    public void cancel() {
+        token.cancel();
+    }
+
+    /**
+     * Returns whether the CancellationToken of this Renderer has been canceled.
+     *
+     * @return
+     */
+    public boolean isCanceled() {
+        return token.isCanceled();
+    }
+
+    /**
+     * Renders the given Fractal and returns its image.
+     *
+     * @param f
+     *
+     * @return
+     *
+     * @throws CancellationException if the render was canceled
+     */
+    public BufferedImage render(Fractal f) {
+        return renderHistogram(f, null).toImage(toneMap);
+    }
+
+    /**
+     * Renders the given Fractal and returns the Histogram of its points, which can be tone mapped into an image. If a
+     * Listener is given, it receives the Histogram of every snapshot before the full number of points is reached.
+     *
+     * @param f
+     * @param listener
+     *
+     * @return
+     *
+     * @throws CancellationException if the render was canceled
+     */
+    Histogram renderHistogram(Fractal f, Listener listener) {
+        FractalKernel kernel = new FractalKernel(f);
+        long base = deterministic ? seed : Randoms.derive(f.getEquations().hashCode());
+
+        int sample = Math.min(points, SAMPLE_POINTS);
+        final Orbit[] tasks = new Orbit[orbits];
+        for (int i = 0; i < orbits; i++) {
+            tasks[i] = new Orbit(i, kernel, share(sample, i), Randoms.mix(base + i));
+        }
+
+        terminatedEarly = false;
+        outcome = OrbitOutcome.ATTRACTOR;
+        calibrate(tasks, sample);
+        if (earlyTermination && EARLY_CHECK_POINTS < points) {
+            Histogram early = plot(tasks, EARLY_CHECK_POINTS);
+            if (early.getLitPixels() < EARLY_MIN_PIXELS) {
+                terminatedEarly = true;
+                return early;
+            }
+        }
+
+        if (listener != null) {
+            for (int snapshot : snapshots) {
+                //Once every orbit has stopped, later snapshots would show the same points
+                if (snapshot > 0 && snapshot < points && outcome == OrbitOutcome.ATTRACTOR) {
+                    listener.snapshot(plot(tasks, snapshot), getCoverage());
+                }
+            }
+        }
+        return plot(tasks, points);
+    }
+
+    /**
+     * Returns the number of points the given orbit iterates when the given total number of points is split between
+     * the orbits.
+     *
+     * @param total
+     * @param orbit
+     *
+     * @return
+     */
+    private int share(int total, int orbit) {
+        return total / orbits + (orbit < total % orbits ? 1 : 0);
+    }
+
+    /**
+     * Iterates the orbits through the sample, which has the given total number of points, and fixes the bounds of the
+     * image from the range of every channel over all of the orbits. The points of the sample are then plotted.
+     *
+     * @param tasks
+     * @param sample
+     */
+    private void calibrate(Orbit[] tasks, final int sample) {
+        invokeAll(tasks, new Stage() {
+            @Override
+            public void run(Orbit orbit) {
+                orbit.iterate(share(sample, orbit.index), burnIn);
+            }
+        });
+
+        double[] min = new double[CHANNELS], max = new double[CHANNELS];
+        for (int c = 0; c < CHANNELS; c++) {
+            min[c] = Double.POSITIVE_INFINITY;
+            max[c] = Double.NEGATIVE_INFINITY;
+            for (Orbit orbit : tasks) {
+                min[c] = Math.min(min[c], orbit.min[c]);
+                max[c] = Math.max(max[c], orbit.max[c]);
+            }
+        }
+
+        final Bounds bounds = new Bounds(min, max);
+        invokeAll(tasks, new Stage() {
+            @Override
+            public void run(Orbit orbit) {
+                orbit.fix(bounds);
+            }
+        });
+    }
+
+    /**
+     * Iterates the orbits until they have the given total number of points between them, and returns a new Histogram
+     * of every point so far.
+     *
+     * @param tasks
+     * @param total
+     *
+     * @return
+     */
+    private Histogram plot(Orbit[] tasks, int total) {
+        final int[] targets = new int[orbits];
+        for (int i = 0; i < orbits; i++) {
+            targets[i] = share(total, i);
+        }
+
+        //Iterate every orbit
+        invokeAll(tasks, new Stage() {
+            @Override
+            public void run(Orbit orbit) {
+                orbit.iterate(targets[orbit.index], burnIn);
+            }
+        });
+
+        //Merge the histograms in a fixed order so that deterministic renders always sum the colors the same way. The
+        // orbits keep adding to their own histograms, so the result is a copy.
+        Histogram histogram = new Histogram(width, height);
+        for (Orbit orbit : tasks) {
+            histogram.merge(orbit.histogram);
+        }
+
+        score = histogram.score();
+
+        //The render is an attractor if any of its orbits is
+        outcome = tasks[0].monitor.getOutcome();
+        for (Orbit orbit : tasks) {
+            if (orbit.monitor.getOutcome() == OrbitOutcome.ATTRACTOR) {
+                outcome = OrbitOutcome.ATTRACTOR;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Returns the fraction of the image that was lit by the last call to render().
+     *
+     * @return
+     */
+    public double getCoverage() {
+        return score.getCoverage();
+    }
+
+    /**
+     * Returns the score of the image produced by the last call to render(). If the render was terminated early, this
+     * is the score of the points plotted before it was terminated.
+     *
+     * @return
+     */
+    public ImageScore getScore() {
+        return score;
+    }
+
+    /**
+     * Returns how the orbits of the last call to render() behaved: ATTRACTOR if any orbit kept visiting new points,
+     * and otherwise the reason the first orbit was stopped.
+     *
+     * @return
+     */
+    public OrbitOutcome getOutcome() {
+        return outcome;
+    }
+
+    /**
+     * Returns whether the last call to render() was terminated early because its orbits collapsed or escaped.
+     *
+     * @return
+     */
+    public boolean isTerminatedEarly() {
+        return terminatedEarly;
+    }
+
+    /**
+     * Runs the given stage on every orbit. A single orbit is run on the calling thread.
+     *
+     * @param tasks
+     * @param stage
+     */
+    private static void invokeAll(final Orbit[] tasks, final Stage stage) {
+        if (tasks.length == 1) {
+            stage.run(tasks[0]);
+            return;
+        }
+
+        pool.invoke(new RecursiveAction() {
+            @Override
+            protected void compute() {
+                ArrayList<RecursiveAction> actions = new ArrayList<>(tasks.length);
+                for (final Orbit orbit : tasks) {
+                    actions.add(new RecursiveAction() {
+                        @Override
+                        protected void compute() {
+                            stage.run(orbit);
+                        }
+                    });
+                }
+                ForkJoinTask.invokeAll(actions);
+            }
+        });
+    }
+
+    private static boolean isFinite(double d) {
+        return !Double.isNaN(d) && !Double.isInfinite(d);
+    }
+
+    /**
+     * Receives the snapshots of a progressive render
+     */
+    interface Listener {
+        /**
+         * Called with the Histogram of the points plotted so far. The Histogram is not modified afterwards.
+         *
+         * @param histogram
+         * @param coverage  the fraction of the image lit by the points so far
+         */
+        void snapshot(Histogram histogram, double coverage);
+    }
+
+    /**
+     * A step of a render that is run on every orbit
+     */
+    private interface Stage {
+        void run(Orbit orbit);
+    }
+
+    /**
+     * Maps points onto the pixels of the image and their colors into the range [0,1]
+     */
+    private final class Bounds {
+        private final double minX, minY, scale, offsetX, offsetY;
+        private final double[] colorMin = new double[CHANNELS], colorScale = new double[CHANNELS];
+
+        /**
+         * Creates bounds that fit the given range of every channel, widened by SAMPLE_PADDING, into the image.
+         *
+         * @param min
+         * @param max
+         */
+        Bounds(double[] min, double[] max) {
+            double[] low = new double[CHANNELS], high = new double[CHANNELS];
+            for (int c = 0; c < CHANNELS; c++) {
+                //Orbits without a single finite point have an empty range and never plot anything
+                double range = max[c] >= min[c] ? max[c] - min[c] : 0;
+                low[c] = min[c] - range * SAMPLE_PADDING;
+                high[c] = max[c] + range * SAMPLE_PADDING;
+            }
+
+            //Use the same scale for both axes so that the shape of the fractal is not distorted
+            double rangeX = high[PX] - low[PX], rangeY = high[PY] - low[PY];
+            double usableWidth = width * (1 - 2 * MARGIN), usableHeight = height * (1 - 2 * MARGIN);
+            minX = low[PX];
+            minY = low[PY];
+            scale = Math.min(usableWidth / Math.max(rangeX, Double.MIN_NORMAL),
+                    usableHeight / Math.max(rangeY, Double.MIN_NORMAL));
+            offsetX = (width - rangeX * scale) / 2;
+            offsetY = (height - rangeY * scale) / 2;
+
+            for (int c = PR; c <= PB; c++) {
+                double range = high[c] - low[c];
+                colorMin[c] = low[c];
+                //Channels with a single value are drawn at full strength
+                colorScale[c] = range > 0 ? 1 / range : 0;
+            }
+        }
+
+        /**
+         * Adds the point with the given channels to the histogram if it lies inside the image
+         *
+         * @param histogram
+         * @param x
+         * @param y
+         * @param r
+         * @param g
+         * @param b
+         */
+        void plot(Histogram histogram, double x, double y, double r, double g, double b) {
+            //Points far outside of the image could overflow the pixel indices
+            double fx = (x - minX) * scale + offsetX, fy = (y - minY) * scale + offsetY;
+            if (!(fx >= 0 && fx < width && fy >= 0 && fy < height)) {
+                return;
+            }
+            int column = (int) fx;
+            //Image rows grow downwards while y grows upwards
+            int row = height - 1 - (int) fy;
+            histogram.add(row * width + column, color(PR, r), color(PG, g), color(PB, b));
+        }
+
+        /**
+         * Returns the given value of a color channel scaled into the range [0,1]. Values outside of the range of the
+         * sample are clamped.
+         *
+         * @param channel
+         * @param value
+         *
+         * @return
+         */
+        private float color(int channel, double value) {
+            if (colorScale[channel] == 0) {
+                return 1;
+            }
+            return (float) Math.max(0, Math.min(1, (value - colorMin[channel]) * colorScale[channel]));
+        }
+    }
+
+    /**
+     * A single orbit of a render. The orbit records the points of the sample until the bounds of the render are fixed,
+     * and from then on adds every point straight into its own histogram. An orbit can be iterated further after its
+     * histogram has been merged.
+     */
+    private class Orbit {
+        private final int index;
+        private final FractalKernel kernel;
+        private final RandomSource random;
+        //The current point of the orbit, or null before the orbit has started
+        private double[] state;
+        //The number of points iterated after the burn-in, including points that were not finite
+        private int iterated = 0;
+        private final OrbitMonitor monitor = new OrbitMonitor(monitorWindow);
+        //Whether the monitor has stopped the orbit
+        private boolean stopped = false;
+
+        //The channels of every finite point of the sample, or null once the bounds are fixed
+        private double[][] channels;
+        private int count = 0;
+        //The range of every channel over the sample
+        private final double[] min = new double[CHANNELS], max = new double[CHANNELS];
+
+        //The bounds points are plotted with, or null while the sample is recorded
+        private Bounds bounds;
+        private final Histogram histogram = new Histogram(width, height);
+
+        Orbit(int index, FractalKernel kernel, int sample, long seed) {
+            this.index = index;
+            this.kernel = kernel;
+            random = Randoms.create(seed);
+            channels = new double[CHANNELS][sample];
+            for (int c = 0; c < CHANNELS; c++) {
+                min[c] = Double.POSITIVE_INFINITY;
+                max[c] = Double.NEGATIVE_INFINITY;
+            }
+        }
+
+        /**
+         * Iterates the orbit until the given number of points after the burn-in have been iterated. Finite points are
+         * recorded while the sample is taken and plotted once the bounds are fixed. The first call starts the orbit
+         * from a randomly perturbed seed point. The orbit is not iterated any further once its monitor has stopped it.
+         *
+         * @param target
+         * @param burnIn
+         */
+        void iterate(int target, int burnIn) {
+            if (state == null) {
+                state = new double[FractalKernel.SIZE];
+                for (int i = 0; i < state.length; i++) {
+                    state[i] = SEED + (random.nextDouble() * 2 - 1) * SEED_JITTER;
+                }
+                for (int i = 0; i < burnIn; i++) {
+                    kernel.step(state);
+                }
+            }
+            //The sample cannot hold more points than it was created for
+            if (bounds == null) {
+                target = Math.min(target, channels[PX].length);
+            }
+
+            for (; iterated < target && !stopped; iterated++) {
+                if (iterated % CANCEL_CHECK_INTERVAL == 0) {
+                    token.throwIfCanceled();
+                }
+
+                //Every Equation is evaluated with the values from the previous step
+                kernel.step(state);
+                double x = state[FractalKernel.X], y = state[FractalKernel.Y];
+                double r = state[FractalKernel.R], g = state[FractalKernel.G], b = state[FractalKernel.B];
+
+                //Points that have escaped to infinity cannot be drawn
+                if (isFinite(x) && isFinite(y) && isFinite(r) && isFinite(g) && isFinite(b)) {
+                    if (bounds != null) {
+                        bounds.plot(histogram, x, y, r, g, b);
+                    }
+                    else {
+                        record(PX, x);
+                        record(PY, y);
+                        record(PR, r);
+                        record(PG, g);
+                        record(PB, b);
+                        count++;
+                    }
+                }
+
+                stopped = monitor.observe(state);
+            }
+        }
+
+        private void record(int channel, double value) {
+            channels[channel][count] = value;
+            min[channel] = Math.min(min[channel], value);
+            max[channel] = Math.max(max[channel], value);
+        }
+
+        /**
+         * Fixes the bounds of the orbit, plots the recorded points of the sample with them, and discards the sample.
+         *
+         * @param bounds
+         */
+        void fix(Bounds bounds) {
+            this.bounds = bounds;
+            for (int i = 0; i < count; i++) {
+                bounds.plot(histogram, channels[PX][i], channels[PY][i], channels[PR][i], channels[PG][i],
+                        channels[PB][i]);
+            }
+            channels = null;
+        }
+    }
+}
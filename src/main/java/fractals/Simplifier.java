@@ -0,0 +1,208 @@
+package fractals;
+
+/**
+ * Simplifies expression trees so that evolved Equations stay small and quick to render.
+ *
+ * The tree is rebuilt bottom-up, and every Node is simplified once its children have been:
+ * - Constant folding: operators whose operands are all constants are replaced by their value, unless the value is
+ * infinite or not a number.
+ * - Identities: x+0, 0+x, x-0, x*1, 1*x, x/1 and x^1 become x, 0-x becomes -x for variables, and abs(abs(x))
+ * becomes abs(x).
+ * - Annihilators: x*0, 0*x, 0/x and x-x become 0, and x^0 and 1^x become 1.
+ * - Dead branches: if with a constant condition becomes the branch it always takes, and if with two equal branches
+ * becomes that branch.
+ *
+ * The annihilators assume that x is finite. For orbits that have already escaped to infinity the simplified tree may
+ * give 0 or 1 where the original gave NaN, which makes no visible difference to the render.
+ */
+final class Simplifier {
+    private Simplifier() {
+    }
+
+    /**
+     * Returns the simplified form of the given tree. If no rule applies, the given tree itself is returned.
+     *
+     * @param tree
+     *
+     * @return
+     */
+    static FlatTree simplify(FlatTree tree) {
+        FlatTree.Builder builder = new FlatTree.Builder();
+        simplify(tree, tree.root(), builder);
+        //Every rule removes at least one Node, so a tree of the same size is unchanged
+        return builder.size() == tree.size() ? tree : builder.build();
+    }
+
+    /**
+     * Adds the simplified subtree rooted at the given Node to the builder.
+     *
+     * @param tree
+     * @param node
+     * @param builder
+     */
+    private static void simplify(FlatTree tree, int node, FlatTree.Builder builder) {
+        byte op = tree.op(node);
+        int arity = FlatTree.arity(op);
+        if (arity == 0) {
+            builder.add(op, tree.constant(node));
+            return;
+        }
+
+        int first = builder.size();
+        int[] children = new int[arity];
+        for (int k = 0; k < arity; k++) {
+            simplify(tree, tree.child(node, k), builder);
+            children[k] = builder.size() - 1;
+        }
+
+        if (!fold(builder, op, first, children) && !reduce(builder, op, first, children)) {
+            builder.add(op, 0);
+        }
+    }
+
+    /**
+     * Replaces an operator whose operands are all constants by its value.
+     *
+     * @param builder
+     * @param op
+     * @param first    the index of the first Node of the operands
+     * @param children the indices of the operands
+     *
+     * @return whether the operator was folded
+     */
+    private static boolean fold(FlatTree.Builder builder, byte op, int first, int[] children) {
+        for (int child : children) {
+            if (builder.op(child) != FlatTree.CONST) {
+                return false;
+            }
+        }
+
+        double value;
+        if (op == FlatTree.IF) {
+            value = builder.constant(children[builder.constant(children[0]) > 0 ? 1 : 2]);
+        }
+        else {
+            value = FlatTree.apply(op, builder.constant(children[0]),
+                    children.length > 1 ? builder.constant(children[1]) : 0);
+        }
+        //Constants that cannot be written out would break the infix expression
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            return false;
+        }
+
+        builder.truncate(first);
+        builder.add(FlatTree.CONST, value);
+        return true;
+    }
+
+    /**
+     * Applies the identity, annihilator, and dead branch rules to an operator.
+     *
+     * @param builder
+     * @param op
+     * @param first    the index of the first Node of the operands
+     * @param children the indices of the operands
+     *
+     * @return whether a rule was applied
+     */
+    private static boolean reduce(FlatTree.Builder builder, byte op, int first, int[] children) {
+        int left = children[0], right = children[children.length - 1];
+        switch (op) {
+            case FlatTree.ABS:
+                if (builder.op(left) == FlatTree.ABS) {
+                    builder.keep(left, first);
+                    return true;
+                }
+                return false;
+            case FlatTree.ADD:
+                if (isConstant(builder, right, 0)) {
+                    builder.keep(left, first);
+                    return true;
+                }
+                if (isConstant(builder, left, 0)) {
+                    builder.keep(right, first);
+                    return true;
+                }
+                return false;
+            case FlatTree.SUB:
+                if (isConstant(builder, right, 0)) {
+                    builder.keep(left, first);
+                    return true;
+                }
+                if (isConstant(builder, left, 0) && (FlatTree.isVariable(builder.op(right)) ||
+                        FlatTree.isNegatedVariable(builder.op(right)))) {
+                    byte variable = builder.op(right);
+                    builder.truncate(first);
+                    builder.add((byte) (FlatTree.isVariable(variable) ? variable - FlatTree.X + FlatTree.NEG_X :
+                            variable - FlatTree.NEG_X + FlatTree.X), 0);
+                    return true;
+                }
+                if (builder.sameSubtree(left, right)) {
+                    return replace(builder, first, 0);
+                }
+                return false;
+            case FlatTree.MUL:
+                if (isConstant(builder, left, 0) || isConstant(builder, right, 0)) {
+                    return replace(builder, first, 0);
+                }
+                if (isConstant(builder, right, 1)) {
+                    builder.keep(left, first);
+                    return true;
+                }
+                if (isConstant(builder, left, 1)) {
+                    builder.keep(right, first);
+                    return true;
+                }
+                return false;
+            case FlatTree.DIV:
+                if (isConstant(builder, left, 0)) {
+                    return replace(builder, first, 0);
+                }
+                if (isConstant(builder, right, 1)) {
+                    builder.keep(left, first);
+                    return true;
+                }
+                return false;
+            case FlatTree.POW:
+                if (isConstant(builder, right, 0) || isConstant(builder, left, 1)) {
+                    return replace(builder, first, 1);
+                }
+                if (isConstant(builder, right, 1)) {
+                    builder.keep(left, first);
+                    return true;
+                }
+                return false;
+            case FlatTree.IF:
+                if (builder.op(children[0]) == FlatTree.CONST) {
+                    builder.keep(children[builder.constant(children[0]) > 0 ? 1 : 2], first);
+                    return true;
+                }
+                if (builder.sameSubtree(children[1], children[2])) {
+                    builder.keep(children[1], first);
+                    return true;
+                }
+                return false;
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isConstant(FlatTree.Builder builder, int node, double value) {
+        return builder.op(node) == FlatTree.CONST && builder.constant(node) == value;
+    }
+
+    /**
+     * Replaces the operands at the end of the builder with a constant.
+     *
+     * @param builder
+     * @param first
+     * @param value
+     *
+     * @return true
+     */
+    private static boolean replace(FlatTree.Builder builder, int first, double value) {
+        builder.truncate(first);
+        builder.add(FlatTree.CONST, value);
+        return true;
+    }
+}
@@ -0,0 +1,126 @@
+package fractals;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * A copy of the image of a Fractal scaled to the size of its box in the window and stored in the pixel format of the
+ * screen. Drawing a Thumbnail is a plain copy that Java2D can accelerate, while drawing the full image would scale it
+ * again on every repaint.
+ *
+ * Thumbnails are scaled on a background thread so that the Swing event thread never waits for them.
+ */
+final class Thumbnail {
+    //Scales the Thumbnails of all Fractals, one at a time
+    private static final ExecutorService scaler = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "thumbnails");
+            //Waiting thumbnails should not keep the program from exiting
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    //The image the Thumbnail was scaled from
+    private final BufferedImage source;
+    private final BufferedImage image;
+
+    private Thumbnail(BufferedImage source, BufferedImage image) {
+        this.source = source;
+        this.image = image;
+    }
+
+    /**
+     * Returns whether the Thumbnail shows the given image at the given size.
+     *
+     * @param other
+     * @param width
+     * @param height
+     *
+     * @return
+     */
+    boolean matches(BufferedImage other, int width, int height) {
+        return source == other && image.getWidth() == width && image.getHeight() == height;
+    }
+
+    BufferedImage getImage() {
+        return image;
+    }
+
+    /**
+     * Scales the given image on the background thread and hands the Thumbnail to the given Fractal, or null if the
+     * image could not be scaled.
+     *
+     * @param owner
+     * @param source
+     * @param width
+     * @param height
+     */
+    static void create(final Fractal owner, final BufferedImage source, final int width, final int height) {
+        scaler.execute(new Runnable() {
+            @Override
+            public void run() {
+                Thumbnail created = null;
+                try {
+                    created = new Thumbnail(source, scale(source, width, height));
+                } finally {
+                    owner.thumbnailCreated(created);
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns a copy of the given image scaled to the given size. Images that are more than twice as large as the
+     * result are halved in steps first, since a single bilinear step would skip most of their pixels.
+     *
+     * @param source
+     * @param width
+     * @param height
+     *
+     * @return
+     */
+    static BufferedImage scale(BufferedImage source, int width, int height) {
+        Image current = source;
+        int currentWidth = source.getWidth(), currentHeight = source.getHeight();
+        while (currentWidth / 2 >= width && currentHeight / 2 >= height) {
+            currentWidth /= 2;
+            currentHeight /= 2;
+            BufferedImage half = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_RGB);
+            draw(current, half);
+            current = half;
+        }
+
+        BufferedImage scaled = createCompatibleImage(width, height);
+        draw(current, scaled);
+        return scaled;
+    }
+
+    private static void draw(Image from, BufferedImage to) {
+        Graphics2D g = to.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        g.drawImage(from, 0, 0, to.getWidth(), to.getHeight(), null);
+        g.dispose();
+    }
+
+    /**
+     * Returns an empty image in the pixel format of the screen, or an RGB image if there is no screen.
+     *
+     * @param width
+     * @param height
+     *
+     * @return
+     */
+    private static BufferedImage createCompatibleImage(int width, int height) {
+        if (GraphicsEnvironment.isHeadless()) {
+            return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        }
+        return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice().getDefaultConfiguration()
+                .createCompatibleImage(width, height);
+    }
+}
@@ -0,0 +1,50 @@
+package fractals;
+
+/**
+ * The display parameters used to turn the Histogram of a render into an image.
+ *
+ * The brightness of every pixel is the logarithm of the number of points that landed in it relative to the most
+ * visited pixel, so that both rarely and frequently visited parts of a fractal remain visible. The brightness is then
+ * gamma corrected and scaled by the exposure. ToneMaps are immutable, so they can be shared between Fractals.
+ */
+public final class ToneMap {
+    //The parameters the images of Fractals are drawn with unless others are chosen
+    public static final ToneMap DEFAULT = new ToneMap(2.2, 1.0);
+
+    private final double gamma, exposure;
+
+    /**
+     * Creates a ToneMap with the given parameters.
+     *
+     * @param gamma    values above 1 brighten rarely visited pixels
+     * @param exposure the factor every brightness is multiplied by
+     */
+    public ToneMap(double gamma, double exposure) {
+        if (!(gamma > 0) || !(exposure > 0)) {
+            throw new IllegalArgumentException("Invalid tone map: gamma " + gamma + ", exposure " + exposure);
+        }
+        this.gamma = gamma;
+        this.exposure = exposure;
+    }
+
+    public double getGamma() {
+        return gamma;
+    }
+
+    public double getExposure() {
+        return exposure;
+    }
+
+    /**
+     * Returns the brightness, in the range [0,1], of a pixel that the given number of points landed in.
+     *
+     * @param count    the number of points in the pixel
+     * @param logMax   the logarithm of one more than the number of points in the most visited pixel
+     *
+     * @return
+     */
+    double brightness(int count, double logMax) {
+        double density = Math.log1p(count) / logMax;
+        return Math.min(1, Math.pow(density, 1 / gamma) * exposure);
+    }
+}
@@ -0,0 +1,83 @@
+package fractals;
+
+import java.util.List;
+
+/**
+ * Summarizes the sizes of the expression trees of a generation of Fractals, so that the growth of the trees over the
+ * generations (bloat) can be watched.
+ */
+public final class TreeStatistics {
+    private final int equations;
+    private final double meanNodes, meanDepth;
+    private final int maxNodes, maxDepth;
+
+    private TreeStatistics(int equations, double meanNodes, int maxNodes, double meanDepth, int maxDepth) {
+        this.equations = equations;
+        this.meanNodes = meanNodes;
+        this.maxNodes = maxNodes;
+        this.meanDepth = meanDepth;
+        this.maxDepth = maxDepth;
+    }
+
+    /**
+     * Measures the Equations of the given Fractals.
+     *
+     * @param fractals
+     *
+     * @return
+     */
+    static TreeStatistics of(List<Fractal> fractals) {
+        int equations = 0;
+        long totalNodes = 0, totalDepth = 0;
+        int maxNodes = 0, maxDepth = 0;
+        for (Fractal f : fractals) {
+            for (Equation equation : f.getEquations()) {
+                if (equation == null) {
+                    continue;
+                }
+                int nodes = equation.getSize(), depth = equation.getDepth();
+                equations++;
+                totalNodes += nodes;
+                totalDepth += depth;
+                maxNodes = Math.max(maxNodes, nodes);
+                maxDepth = Math.max(maxDepth, depth);
+            }
+        }
+        if (equations == 0) {
+            return new TreeStatistics(0, 0, 0, 0, 0);
+        }
+        return new TreeStatistics(equations, totalNodes / (double) equations, maxNodes,
+                totalDepth / (double) equations, maxDepth);
+    }
+
+    /**
+     * Returns the number of Equations that were measured
+     *
+     * @return
+     */
+    public int getEquations() {
+        return equations;
+    }
+
+    public double getMeanNodes() {
+        return meanNodes;
+    }
+
+    public int getMaxNodes() {
+        return maxNodes;
+    }
+
+    public double getMeanDepth() {
+        return meanDepth;
+    }
+
+    public int getMaxDepth() {
+        return maxDepth;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("nodes: mean %.1f, max %d; depth: mean %.1f, max %d", meanNodes, maxNodes, meanDepth,
+                maxDepth);
+    }
+}
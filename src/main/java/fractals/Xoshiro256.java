@@ -0,0 +1,44 @@
+package fractals;
+
+/**
+ * The xoshiro256** generator by Blackman and Vigna. It is fast, has a period of 2^256 - 1, and passes all common
+ * statistical tests, which makes it a good default for both evolution and rendering.
+ */
+public final class Xoshiro256 extends RandomSource {
+    //Creates Xoshiro256 generators
+    public static final Factory FACTORY = new Factory() {
+        @Override
+        public RandomSource create(long seed) {
+            return new Xoshiro256(seed);
+        }
+    };
+
+    private long s0, s1, s2, s3;
+
+    /**
+     * Creates a generator whose state is filled from the given seed by SplitMix64, so that similar seeds give
+     * unrelated sequences and the state is never all zero.
+     *
+     * @param seed
+     */
+    public Xoshiro256(long seed) {
+        s0 = Randoms.mix(seed += Randoms.GOLDEN_GAMMA);
+        s1 = Randoms.mix(seed += Randoms.GOLDEN_GAMMA);
+        s2 = Randoms.mix(seed += Randoms.GOLDEN_GAMMA);
+        s3 = Randoms.mix(seed + Randoms.GOLDEN_GAMMA);
+    }
+
+    @Override
+    public long nextLong() {
+        long result = Long.rotateLeft(s1 * 5, 7) * 9;
+        long t = s1 << 17;
+
+        s2 ^= s0;
+        s3 ^= s1;
+        s1 ^= s2;
+        s0 ^= s3;
+        s2 ^= t;
+        s3 = Long.rotateLeft(s3, 45);
+        return result;
+    }
+}
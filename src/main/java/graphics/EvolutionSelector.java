@@ -1,5 +1,7 @@
 package graphics;
 
+import fractals.EvolutionConfig;
+
 import javax.swing.*;
 import java.awt.*;
 
@@ -40,4 +42,14 @@ public class EvolutionSelector extends JPanel {
         frame.getContentPane().add(zEquation);
         frame.getContentPane().add(colorEquation);
     }
+
+    /**
+     * Returns the settings chosen by the check boxes. Must be called on the Swing event thread.
+     *
+     * @return
+     */
+    public static EvolutionConfig getConfig() {
+        return EvolutionConfig.DEFAULT.toBuilder().setEvolved(xEquation.isSelected(), yEquation.isSelected(),
+                zEquation.isSelected(), colorEquation.isSelected()).build();
+    }
 }
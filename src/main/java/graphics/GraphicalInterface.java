@@ -1,7 +1,10 @@
 package graphics;
 
+import fractals.Fractal;
 import fractals.Generator;
+import fractals.GridConfig;
 import fractals.ImageManager;
+import fractals.TreeStatistics;
 
 import javax.swing.*;
 import java.awt.*;
@@ -25,7 +28,7 @@ import java.io.ObjectOutputStream;
 import java.io.OutputStream;
 
 /**
- * Opens JFrame with nine boxes.
+ * Opens JFrame with a grid of boxes, one for every Fractal of the current generation.
  */
 public class GraphicalInterface extends JPanel implements MouseMotionListener, MouseListener,
         KeyListener, ActionListener {
@@ -41,14 +44,13 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
     public static Generator generator;
 
     /*
-    Represents the fractals that have been selected as parents for the next generation.
+    Represents the fractals that have been selected as parents for the next generation, in reading order.
     [0] is the upper left
-    [1] is the upper middle
-    [2] is the upper right
+    [1] is the box to its right
     ...
-    [8] is the lower right
+    [columns * rows - 1] is the lower right
      */
-    public static boolean selectedFractals[] = new boolean[9];
+    public static boolean selectedFractals[] = new boolean[ImageManager.grid.size()];
 
     //Represents the size of the window in pixels
     static int windowWidth = 1024, windowHeight = 868;
@@ -78,6 +80,9 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
     public static final int SELECTOR_HEIGHT = 100;
     public static EvolutionSelector selector;
 
+    //The panel the Fractals are drawn on
+    private static GraphicalInterface panel;
+
     /**
      * Initializes the JFrame
      */
@@ -90,6 +95,7 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
         frame.addMouseListener(this);
         frame.addKeyListener(this);
         frame.add(this);
+        panel = this;
     }
 
     public static void main(String args[]) throws IOException, InterruptedException {
@@ -105,7 +111,7 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
     }
 
     /**
-     * Returns the total height of the area where the 3x3 grid of fractals are drawn.
+     * Returns the total height of the area where the grid of fractals is drawn.
      *
      * @return the height in pixels
      */
@@ -113,6 +119,33 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
         return frame.getHeight() - SELECTOR_HEIGHT;
     }
 
+    /**
+     * Returns the grid the current generation is shown in
+     *
+     * @return
+     */
+    private static GridConfig getGrid() {
+        return generator.getGrid();
+    }
+
+    /**
+     * Returns the width of a box of the grid in pixels
+     *
+     * @return
+     */
+    private static int getBoxWidth() {
+        return frame.getWidth() / getGrid().getColumns();
+    }
+
+    /**
+     * Returns the height of a box of the grid in pixels
+     *
+     * @return
+     */
+    private static int getBoxHeight() {
+        return getFractalWindowHeight() / getGrid().getRows();
+    }
+
     /**
      * Toggles full-screen mode for the JFrame windows
      */
@@ -127,30 +160,65 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
     }
 
     /**
-     * Draw the 9 fractal boxes on the window
+     * Repaints the box of the given Fractal if it is part of the current generation. This can be called from any
+     * thread.
+     *
+     * @param f
+     */
+    public static void repaintFractal(Fractal f) {
+        final int index = generator == null ? -1 : generator.indexOf(f);
+        if (panel != null && index >= 0) {
+            final int columns = getGrid().getColumns();
+            panel.repaintBox(index % columns * getBoxWidth(), index / columns * getBoxHeight());
+        }
+    }
+
+    /**
+     * Repaints the box whose upper-left corner is at (x,y), including its border.
+     *
+     * @param x the x location of the upper-left corner of the box in pixels
+     * @param y the y location of the upper-left corner of the box in pixels
+     */
+    private void repaintBox(int x, int y) {
+        repaint(x, y, getBoxWidth() + 1, getBoxHeight() + 1);
+    }
+
+    /**
+     * Draw the fractal boxes on the window. Only the part of the window inside the clip of the graphics object is
+     * drawn, so repainting a single box does not draw the other Fractals again.
      *
      * @param g the graphics object to draw on
      */
     public void drawInterface(Graphics g) {
-        //Fill the window with the background color
+        Rectangle clip = g.getClipBounds();
+        if (clip == null) {
+            clip = new Rectangle(0, 0, frame.getWidth(), frame.getHeight());
+        }
+
+        //Fill the damaged part of the window with the background color
         g.setColor(bgColor);
-        g.fillRect(0, 0, frame.getWidth(), frame.getHeight());
+        g.fillRect(clip.x, clip.y, clip.width, clip.height);
 
         //Define how big each box is by looking at the current window size
-        final int boxWidth = frame.getWidth() / 3;
-        final int boxHeight = getFractalWindowHeight() / 3;
-
-        //Draw each of the 9 boxes
-        for (int i = 0; i < 9; i++) {
-            final int x = i % 3 * boxWidth;
-            final int y = i / 3 * boxHeight;
+        final int boxWidth = getBoxWidth();
+        final int boxHeight = getBoxHeight();
+        final int columns = getGrid().getColumns();
+
+        //Draw each of the boxes that overlap the damaged part of the window
+        for (int i = 0; i < getGrid().size(); i++) {
+            final int x = i % columns * boxWidth;
+            final int y = i / columns * boxHeight;
+            if (!clip.intersects(x, y, boxWidth + 1, boxHeight + 1)) {
+                continue;
+            }
 
             g.setColor(fgColor);
             //Draw the fractal
-            drawImage(g, i, x, y);
+            drawImage(g, i, x, y, boxWidth, boxHeight);
             drawBox(g, x, y, boxWidth, boxHeight);
         }
 
+        //The overlays are drawn over the boxes. Parts of them outside the clip are not drawn.
         //Highlight the selected boxes
         drawSelectedBoxes(g);
 
@@ -158,7 +226,9 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
         drawSelectedBox(g);
 
         //Draw the evolution selector bar
-        drawSelectorBar(g);
+        if (clip.intersects(0, getFractalWindowHeight() + 1, frame.getWidth(), SELECTOR_HEIGHT)) {
+            drawSelectorBar(g);
+        }
     }
 
     /**
@@ -173,6 +243,11 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
         //Draw the generation information
         g.drawString("Generation: " + generator.getGeneration() + "/" + generator
                 .getTotalGenerations(), 15, getFractalWindowHeight() + 15);
+        //Draw the size of the expression trees so that bloat can be noticed
+        TreeStatistics statistics = generator.getTreeStatistics();
+        if (statistics != null) {
+            g.drawString("Trees: " + statistics, 150, getFractalWindowHeight() + 15);
+        }
     }
 
     /**
@@ -182,14 +257,15 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
      */
     private void drawSelectedBoxes(Graphics g) {
         g.setColor(selectedColor);
-        //Loop through all 9 boxes
+        final int columns = getGrid().getColumns();
+        //Loop through all boxes
         for (int i = 0; i < selectedFractals.length; i++) {
-            final int x = i % 3 * frame.getWidth() / 3;
-            final int y = i / 3 * getFractalWindowHeight() / 3;
+            final int x = i % columns * getBoxWidth();
+            final int y = i / columns * getBoxHeight();
 
             //Only highlight the boxes that have been selected
             if (selectedFractals[i]) {
-                g.fillRect(x, y, frame.getWidth() / 3, getFractalWindowHeight() / 3);
+                g.fillRect(x, y, getBoxWidth(), getBoxHeight());
             }
         }
     }
@@ -224,15 +300,17 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
     }
 
     /**
-     * Draw the fractal represented by the given index at position (x,y)
+     * Draw the fractal represented by the given index at position (x,y) with the given size
      *
-     * @param g     the graphics object to draw on
-     * @param index the index of the fractal
-     * @param x     the x location of the upper-left corner of the image in pixels
-     * @param y     the y location of the upper-left corner of the image in pixels
+     * @param g      the graphics object to draw on
+     * @param index  the index of the fractal
+     * @param x      the x location of the upper-left corner of the image in pixels
+     * @param y      the y location of the upper-left corner of the image in pixels
+     * @param width  the width of the image in pixels
+     * @param height the height of the image in pixels
      */
-    public void drawImage(Graphics g, int index, int x, int y) {
-        generator.drawImage(index, g, x, y);
+    public void drawImage(Graphics g, int index, int x, int y, int width, int height) {
+        generator.drawImage(index, g, x, y, width, height);
     }
 
     /**
@@ -242,11 +320,11 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
      */
     public void drawSelectedBox(Graphics g) {
         //Use the mouse to determine which box is highlighted
-        final int l = mouseX / (frame.getWidth() / 3) * (frame.getWidth() / 3);
-        final int t = mouseY / (getFractalWindowHeight() / 3) * (getFractalWindowHeight() / 3);
+        final int l = mouseX / getBoxWidth() * getBoxWidth();
+        final int t = mouseY / getBoxHeight() * getBoxHeight();
 
         g.setColor(hoverColor);
-        g.fillRect(l + 1, t + 1, frame.getWidth() / 3 - 2, getFractalWindowHeight() / 3 - 2);
+        g.fillRect(l + 1, t + 1, getBoxWidth() - 2, getBoxHeight() - 2);
     }
 
     /**
@@ -273,14 +351,15 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
         mouseX = x - frame.getInsets().left;
         mouseY = y - frame.getInsets().top;
 
-        final int boxX = mouseX / (frame.getWidth() / 3) * (frame.getWidth() / 3);
-        final int boxY = mouseY / (getFractalWindowHeight() / 3) * (getFractalWindowHeight() / 3);
+        final int boxX = mouseX / getBoxWidth() * getBoxWidth();
+        final int boxY = mouseY / getBoxHeight() * getBoxHeight();
 
-        //Repaint the screen if the hover box changes
+        //Repaint the boxes that lose and gain the hover highlight if the hover box changes
         if (boxX != selectedBoxX | boxY != selectedBoxY) {
+            repaintBox(selectedBoxX, selectedBoxY);
             selectedBoxX = boxX;
             selectedBoxY = boxY;
-            repaint();
+            repaintBox(boxX, boxY);
         }
     }
 
@@ -294,24 +373,27 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
         mouseX = x - frame.getInsets().left;
         mouseY = y - frame.getInsets().top;
 
-        final int boxCol = mouseX / (frame.getWidth() / 3);
-        final int boxRow = mouseY / (getFractalWindowHeight() / 3);
+        final int boxCol = mouseX / getBoxWidth();
+        final int boxRow = mouseY / getBoxHeight();
+
+        //Ignore clicks outside of the grid, such as on the selector bar
+        if (mouseX < 0 || mouseY < 0 || boxCol >= getGrid().getColumns() || boxRow >= getGrid().getRows()) {
+            return;
+        }
 
         //Calculate the index of the box
-        final int boxIndex = (boxRow * 3) + boxCol;
+        final int boxIndex = (boxRow * getGrid().getColumns()) + boxCol;
 
         //If the click is a right-mouse button click, bring up the render box
         if (SwingUtilities.isRightMouseButton(e)) {
             drawPopupForFractal(e);
             menuOpenForFractalNum = boxIndex;
         }
-        //Otherwise, toggle the selection of the box
+        //Otherwise, toggle the selection of the box and repaint it
         else {
             selectedFractals[boxIndex] = !selectedFractals[boxIndex];
+            repaintBox(boxCol * getBoxWidth(), boxRow * getBoxHeight());
         }
-
-        //Repaint the screen
-        repaint();
     }
 
     @Override
@@ -340,12 +422,9 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
 
     @Override
     public void keyReleased(KeyEvent e) {
-        //Space bar generates a new generation
+        //Space bar generates a new generation. It is shown, and the selected fractals are cleared, once it is ready.
         if (e.getKeyCode() == KeyEvent.VK_SPACE) {
             generator.generateNewGeneration();
-            //Clear the selected fractals
-            selectedFractals = new boolean[9];
-            repaint();
         }
         //Left goes back one generation
         else if (e.getKeyCode() == KeyEvent.VK_LEFT) {
@@ -384,8 +463,8 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
                 final OutputStream buffer = new BufferedOutputStream(file);
                 final ObjectOutput output = new ObjectOutputStream(buffer)
         ) {
-            //Stop the current Threads as we are discarding the current program state
-            ImageManager.interruptThreads();
+            //Stop the current renders as we are discarding the current program state
+            ImageManager.cancelRenders();
             output.writeObject(generator);
             System.out.println("Done!");
         } catch (IOException ex) {
@@ -409,9 +488,13 @@ public class GraphicalInterface extends JPanel implements MouseMotionListener, M
                 final InputStream buffer = new BufferedInputStream(file);
                 final ObjectInput input = new ObjectInputStream(buffer)
         ) {
-            //Stop the current Threads as we are discarding the current program state
-            ImageManager.interruptThreads();
+            //Stop the current renders and the generation being bred as we are discarding the current program state
+            ImageManager.cancelRenders();
+            generator.cancelNewGeneration();
             generator = (Generator) input.readObject();
+            //Render the images of the loaded generations for the grid they were saved with
+            ImageManager.grid = generator.getGrid();
+            selectedFractals = new boolean[getGrid().size()];
             System.out.println("Done!");
             repaint();
         } catch (IOException | ClassNotFoundException e) {
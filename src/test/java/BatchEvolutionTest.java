@@ -0,0 +1,84 @@
+import fractals.BatchEvolution;
+import fractals.Fitness;
+import fractals.Fractal;
+import fractals.Generator;
+import fractals.GridConfig;
+import fractals.ImageScore;
+import fractals.Randoms;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchEvolutionTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testReproducibleRun() throws IOException {
+        final long seed = Randoms.getSeed();
+        try {
+            Randoms.setSeed(42);
+            final String first = evolve(null);
+            Randoms.setSeed(42);
+            assertEquals(first, evolve(null));
+        } finally {
+            Randoms.setSeed(seed);
+        }
+    }
+
+    @Test
+    public void testOutput() throws IOException {
+        final File output = folder.getRoot();
+        evolve(output);
+
+        for (String generation : new String[]{"generation-0001", "generation-0002"}) {
+            for (String rank : new String[]{"rank-01", "rank-02"}) {
+                assertTrue(new File(output, generation + File.separator + rank + ".png").isFile());
+                assertTrue(new File(output, generation + File.separator + rank + ".txt").isFile());
+            }
+            assertEquals(4, new File(output, generation).list().length);
+        }
+    }
+
+    @Test
+    public void testExpressionFitness() throws IOException {
+        final BatchEvolution evolution = new BatchEvolution(new Generator(new GridConfig(2, 2, 1, 1, 1)),
+                BatchEvolution.expression("x * y - r"));
+        evolution.setTop(4);
+        evolution.setImageSize(160, 120, 20000);
+
+        //The variables of the expression are the measures of the score
+        for (BatchEvolution.Result result : evolution.run(1)) {
+            final ImageScore score = result.getScore();
+            assertEquals(score.getCoverage() * score.getEntropy() - (score.isSparse() ? 1 : 0), result.getFitness(),
+                    1e-12);
+        }
+    }
+
+    private static String evolve(File output) throws IOException {
+        final BatchEvolution evolution = new BatchEvolution(new Generator(new GridConfig(2, 2, 2, 1, 1)),
+                Fitness.SCORE);
+        evolution.setTop(2);
+        evolution.setImageSize(160, 120, 20000);
+        evolution.setOutputDirectory(output);
+
+        final List<BatchEvolution.Result> best = evolution.run(2);
+        assertEquals(2, best.size());
+        assertTrue(best.get(0).getFitness() >= best.get(1).getFitness());
+        assertTrue(evolution.getFractalsPerSecond() > 0);
+
+        final StringBuilder equations = new StringBuilder();
+        for (BatchEvolution.Result result : best) {
+            final Fractal f = result.getFractal();
+            equations.append(f.getX()).append(' ').append(f.getY()).append(' ').append(f.getZ()).append('\n');
+        }
+        return equations.toString();
+    }
+}
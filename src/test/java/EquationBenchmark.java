@@ -0,0 +1,53 @@
+import fractals.Equation;
+
+/**
+ * Measures how much faster copying an Equation directly is than parsing its infix expression again. This is not a unit
+ * test; run its main method with the test classpath, for example from an IDE.
+ */
+public class EquationBenchmark {
+    private static final int EQUATIONS = 100;
+    private static final int ROUNDS = 5;
+    private static final int REPETITIONS = 200;
+
+    //Keeps the results alive so that the JIT cannot remove the work being measured
+    private static int sink;
+
+    public static void main(String[] args) {
+        //Evolve a pool of Equations of the size found after a few generations
+        final Equation[] equations = new Equation[EQUATIONS];
+        for (int i = 0; i < EQUATIONS; i++) {
+            equations[i] = Equation.generateRandomXEquation();
+            for (int j = 0; j < 3; j++) {
+                equations[i].introduce();
+            }
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long parse = time(equations, true);
+            final long clone = time(equations, false);
+            System.out.printf("round %d: parse %.0f ns, clone %.0f ns, %.0fx faster%n", round,
+                    parse / (double) (EQUATIONS * REPETITIONS), clone / (double) (EQUATIONS * REPETITIONS),
+                    parse / (double) clone);
+        }
+        System.out.println(sink);
+    }
+
+    /**
+     * Copies every Equation REPETITIONS times and returns the time taken in nanoseconds.
+     *
+     * @param equations
+     * @param parse     whether to copy by parsing the infix expression rather than with clone()
+     *
+     * @return
+     */
+    private static long time(Equation[] equations, boolean parse) {
+        final long start = System.nanoTime();
+        for (int r = 0; r < REPETITIONS; r++) {
+            for (Equation equation : equations) {
+                final Equation copy = parse ? new Equation(equation.getExpression()) : equation.clone();
+                sink += copy.getExpression().length();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+}
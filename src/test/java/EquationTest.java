@@ -1,8 +1,21 @@
+import fractals.CompiledEquation;
 import fractals.Equation;
+import fractals.ExpressionParseException;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class EquationTest {
     @Before
@@ -17,4 +30,186 @@ public class EquationTest {
 
         assertEquals(infix, equation.getExpression());
     }
+
+    @Test
+    public void testEvaluate() {
+        final Equation equation = new Equation("x*sin(y+1)");
+
+        assertEquals(2 * Math.sin(3 + 1), equation.evaluate(2, 3, 0, 0, 0, 0), 1e-12);
+    }
+
+    @Test
+    public void testCompile() {
+        final Equation equation = new Equation("if(x, sin(2.5 * y) ^ 2, abs(-z) - 1) / (r + g * b)");
+        final CompiledEquation compiled = equation.compile();
+
+        for (double x : new double[]{-1.5, 0, 0.75}) {
+            assertEquals(equation.evaluate(x, 0.3, -2, 1, 2, 3), compiled.evaluate(x, 0.3, -2, 1, 2, 3), 0);
+        }
+        //The compiled form is cached until the Equation changes
+        assertSame(compiled, equation.compile());
+        equation.mutate();
+        assertNotSame(compiled, equation.compile());
+    }
+
+    @Test
+    public void testCloneIsIndependent() {
+        final Equation equation = new Equation("sin(1.5 * y) + x * 0.25");
+        final Equation clone = equation.clone();
+
+        for (int i = 0; i < 10; i++) {
+            clone.introduce();
+        }
+        assertEquals(Math.sin(1.5 * 2) + 0.25, equation.evaluate(1, 2, 0, 0, 0, 0), 1e-12);
+    }
+
+    @Test
+    public void testParse() {
+        assertEquals(2 + 1.2, new Equation("x--1.2").evaluate(2, 0, 0, 0, 0, 0), 0);
+        assertEquals(4, new Equation("-x^2").evaluate(2, 0, 0, 0, 0, 0), 0);
+        assertEquals(-Math.sin(2), new Equation("-sin(x)").evaluate(2, 0, 0, 0, 0, 0), 0);
+        assertEquals(Math.pow(2, Math.pow(3, 2)), new Equation("x ^ y ^ 2").evaluate(2, 3, 0, 0, 0, 0), 0);
+        assertEquals(1.5E-4, new Equation("1.5E-4 * x").evaluate(1, 0, 0, 0, 0, 0), 0);
+        assertEquals(2, new Equation("if(x > 1, 2, 3)").evaluate(1.5, 0, 0, 0, 0, 0), 0);
+        assertEquals(3, new Equation("if(x > 1, 2, 3)").evaluate(0.5, 0, 0, 0, 0, 0), 0);
+        assertEquals(new Equation("if(x, y, z)"), new Equation("if((x > 0)(y)(z))"));
+        assertEquals(2, new Equation("if((x + 1) * y > 1, 2, 3)").evaluate(1, 1, 0, 0, 0, 0), 0);
+        //The condition is greater than zero, not at least zero
+        assertEquals(3, new Equation("if(x > y, 2, 3)").evaluate(1, 1, 0, 0, 0, 0), 0);
+
+        //Every written out Equation is read back as the same tree
+        final Equation equation = new Equation("if(x, cos(y), z / 3) - 0.5");
+        final Equation other = new Equation("sin(1.5 * y) + x * 0.25");
+        for (int i = 0; i < 100; i++) {
+            equation.introduce();
+            equation.cross(other);
+            assertEquals(equation, new Equation(equation.getExpression()));
+            assertEquals(other, new Equation(other.getExpression()));
+        }
+    }
+
+    @Test
+    public void testParseErrors() {
+        assertParseError("sin(x", 5);
+        assertParseError("x > 1", 2);
+        assertParseError("2 * foo(x)", 4);
+        assertParseError("x + * y", 4);
+        assertParseError("if(x, y)", 7);
+        assertParseError("(x + y) z", 8);
+        //Only the top of a condition may compare
+        assertParseError("if(x > (y > 1), a, b)", 10);
+        assertParseError("if((x > (y > 1))(a)(b))", 11);
+        assertParseError("if((x > 1) * 2, y, z)", 6);
+        assertParseError("if(((x > 0))(y)(z))", 7);
+    }
+
+    private static void assertParseError(String expression, int position) {
+        try {
+            new Equation(expression);
+            fail("Parsed " + expression);
+        } catch (ExpressionParseException e) {
+            assertEquals(expression, e.getExpression());
+            assertEquals(position, e.getPosition());
+        }
+    }
+
+    @Test
+    public void testGeneratedEquations() {
+        //Generated Equations are built without parsing, so they must match the Equations parsed from their text
+        for (Equation equation : new Equation[]{Equation.generateRandomXEquation(), Equation.generateRandomYEquation(),
+                Equation.generateRandomZEquation()}) {
+            final Equation parsed = new Equation(equation.getExpression());
+            assertEquals(parsed, equation);
+            assertEquals(parsed.evaluate(0.1, 0.2, 0.3, 0.4, 0.5, 0.6), equation.evaluate(0.1, 0.2, 0.3, 0.4, 0.5, 0.6),
+                    0);
+        }
+    }
+
+    @Test
+    public void testSerialization() throws IOException, ClassNotFoundException {
+        final Equation equation = new Equation("if(x, cos(y), z / 3) - 0.5");
+        equation.introduce();
+
+        final Equation copy = roundTrip(equation);
+
+        assertEquals(equation.getExpression(), copy.getExpression());
+        assertEquals(equation.evaluate(0.1, 0.2, 0.3, 0.4, 0.5, 0.6), copy.evaluate(0.1, 0.2, 0.3, 0.4, 0.5, 0.6), 0);
+    }
+
+    @Test
+    public void testStructuralEquality() throws IOException, ClassNotFoundException {
+        final Equation equation = new Equation("sin(1.5 * y) + x");
+
+        assertEquals(equation, new Equation("sin(1.5 * y) + x"));
+        assertEquals(equation.hashCode(), new Equation("sin(1.5 * y) + x").hashCode());
+        assertNotEquals(equation, new Equation("sin(1.5 * y) + y"));
+        assertNotEquals(equation, new Equation("sin(1.25 * y) + x"));
+
+        //Hashes carried over by crossing match hashes computed from scratch for the deserialized copies
+        final Equation other = new Equation("if(x, cos(y), z / 3) - 0.5");
+        for (int i = 0; i < 20; i++) {
+            equation.hashCode();
+            other.hashCode();
+            equation.cross(other);
+
+            final Equation copy = roundTrip(equation);
+            assertEquals(copy.hashCode(), equation.hashCode());
+            assertEquals(copy, equation);
+        }
+    }
+
+    @Test
+    public void testSimplify() {
+        assertEquals("-x", simplified("0 - x").getExpression());
+        assertEquals("y", simplified("(x - x) + y").getExpression());
+        assertEquals("x", simplified("if(0.5, x, y) * 1").getExpression());
+        assertEquals("sin(x)", simplified("if(y, sin(x), sin(x)) ^ (2 - 1)").getExpression());
+        assertEquals(Math.abs(0.3) * 1.2, simplified("abs(0.3) * 1.2").evaluate(0, 0, 0, 0, 0, 0), 0);
+
+        //Simplifying keeps the value of the Equation and the unsimplified Equation stays available
+        final Equation equation = new Equation("sin(1.5 * y) + x * 0.25");
+        for (int i = 0; i < 200; i++) {
+            equation.introduce();
+            final Equation unsimplified = equation.getUnsimplified();
+            for (double x : new double[]{-1.5, 0, 0.75}) {
+                final double expected = unsimplified.evaluate(x, 0.3, -2, 1, 2, 3);
+                if (!Double.isNaN(expected) && !Double.isInfinite(expected)) {
+                    assertEquals(expected, equation.evaluate(x, 0.3, -2, 1, 2, 3), 1e-9 * Math.max(1,
+                            Math.abs(expected)));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testTreeLimits() {
+        final Equation equation = new Equation("sin(1.5 * y) + x * 0.25");
+        final Equation other = new Equation("if(x, cos(y), z / 3) - 0.5");
+        for (int i = 0; i < 200; i++) {
+            equation.introduce();
+            other.introduce();
+            equation.cross(other);
+
+            for (Equation e : new Equation[]{equation, other, equation.getUnsimplified(), other.getUnsimplified()}) {
+                assertTrue(e.getSize() <= Equation.getMaxNodes());
+                assertTrue(e.getDepth() <= Equation.getMaxDepth());
+            }
+        }
+    }
+
+    private static Equation simplified(String expression) {
+        final Equation equation = new Equation(expression);
+        equation.simplify();
+        return equation;
+    }
+
+    private static Equation roundTrip(Equation equation) throws IOException, ClassNotFoundException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(equation);
+        }
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (Equation) input.readObject();
+        }
+    }
 }
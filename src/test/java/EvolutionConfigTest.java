@@ -0,0 +1,65 @@
+import fractals.Equation;
+import fractals.EvolutionConfig;
+import fractals.Fractal;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+
+public class EvolutionConfigTest {
+    private static Fractal fractal() {
+        return new Fractal(new Equation("sin(-1.4 * y) + 1.6 * cos(-1.4 * x)"),
+                new Equation("sin(1.6 * x) + 0.7 * cos(1.6 * y)"), new Equation("x + y"));
+    }
+
+    @Test
+    public void testChannels() {
+        final EvolutionConfig config = new EvolutionConfig.Builder().setEvolved(false, true, false, false)
+                .setMutateChance(1).build();
+        final Fractal parent = fractal();
+
+        //Only the chosen Equations are mutated
+        final Fractal child = parent.mutate(config);
+        assertEquals(parent.getX(), child.getX());
+        assertNotEquals(parent.getY(), child.getY());
+        assertEquals(parent.getZ(), child.getZ());
+        assertEquals(parent.getR(), child.getR());
+
+        //The child keeps the settings it was created with for later mutations
+        assertSame(config, child.getConfig());
+        final Equation x = child.getX();
+        child.inPlaceMutate();
+        assertEquals(x, child.getX());
+    }
+
+    @Test
+    public void testMutateChance() {
+        final EvolutionConfig config = EvolutionConfig.DEFAULT.toBuilder().setMutateChance(0).build();
+        final Fractal parent = fractal();
+        final Fractal child = parent.mutate(config);
+
+        assertEquals(parent.getX(), child.getX());
+        assertEquals(parent.getY(), child.getY());
+    }
+
+    @Test
+    public void testCrossColor() {
+        final EvolutionConfig config = new EvolutionConfig.Builder().setEvolved(false, false, false, true).build();
+        final Fractal parent = new Fractal(new Equation("x"), new Equation("y"), new Equation("z"), new Equation("x"),
+                new Equation("x"), new Equation("x"));
+        final Fractal other = new Fractal(new Equation("x"), new Equation("y"), new Equation("z"), new Equation("y"),
+                new Equation("y"), new Equation("y"));
+
+        //Crossing single-Node Equations swaps them, so the colors come from the other parent
+        final Fractal child = parent.cross(other, config);
+        assertEquals(other.getR(), child.getR());
+        assertEquals(other.getG(), child.getG());
+        assertEquals(other.getB(), child.getB());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidChance() {
+        new EvolutionConfig.Builder().setOperatorChance(1.5);
+    }
+}
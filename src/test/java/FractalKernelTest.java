@@ -0,0 +1,51 @@
+import fractals.Equation;
+import fractals.Fractal;
+import fractals.FractalKernel;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class FractalKernelTest {
+    @Test
+    public void testStepMatchesEquations() {
+        assertStepMatchesEquations(new Fractal(new Equation("sin(1.7 * y) + if(x - 0.2, 0 - x, cos(y)) * z"),
+                new Equation("sin(1.7 * y) ^ 2 - abs(x / (g + 3))"), new Equation("y * 1.7 + b"), new Equation("x"),
+                new Equation("-y"), new Equation("r * g")));
+    }
+
+    @Test
+    public void testSharedBranches() {
+        //abs(y) ^ 1.5 is shared, but only used inside the branches of if
+        assertStepMatchesEquations(new Fractal(new Equation("if(x - 0.3, abs(y) ^ 1.5, z)"),
+                new Equation("if(y, 1 + abs(y) ^ 1.5, 0 - x)"), new Equation("if(z, x, abs(y) ^ 1.5 * 2)")));
+    }
+
+    private static void assertStepMatchesEquations(Fractal fractal) {
+        final FractalKernel kernel = new FractalKernel(fractal);
+        final Equation[] equations = {fractal.getX(), fractal.getY(), fractal.getZ(), fractal.getR(),
+                fractal.getG(), fractal.getB()};
+
+        final double[] state = {0.1, 0.2, 0.3, 0.4, 0.5, 0.6};
+        for (int step = 0; step < 50; step++) {
+            final double[] expected = new double[FractalKernel.SIZE];
+            for (int i = 0; i < FractalKernel.SIZE; i++) {
+                expected[i] = equations[i].evaluate(state[0], state[1], state[2], state[3], state[4], state[5]);
+            }
+            kernel.step(state);
+            for (int i = 0; i < FractalKernel.SIZE; i++) {
+                assertEquals(expected[i], state[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testSharedSubexpressions() {
+        //sin(1.7 * y) and y * 1.7 share nodes across the x and y Equations
+        final FractalKernel kernel = new FractalKernel(new Fractal(new Equation("sin(1.7 * y) + x"),
+                new Equation("sin(1.7 * y) - x"), new Equation("y * 1.7")));
+
+        //x, y, z, 1.7, 1.7*y, sin, +, -
+        assertTrue(kernel.getNodeCount() <= 8);
+    }
+}
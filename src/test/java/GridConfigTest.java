@@ -0,0 +1,52 @@
+import fractals.GridConfig;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GridConfigTest {
+    @Test
+    public void testOperationCounts() {
+        //The default grid keeps one row per operation
+        assertArrayEquals(new int[]{3, 3, 3}, GridConfig.DEFAULT.getOperationCounts());
+
+        assertArrayEquals(new int[]{9, 8, 8}, new GridConfig(5, 5, 1, 1, 1).getOperationCounts());
+        assertArrayEquals(new int[]{50, 25, 25}, new GridConfig(10, 10, 2, 1, 1).getOperationCounts());
+        assertArrayEquals(new int[]{0, 36, 0}, new GridConfig(6, 6, 0, 1, 0).getOperationCounts());
+
+        //The counts always fill the grid
+        for (int size = 1; size <= GridConfig.MAX_DIMENSION; size++) {
+            int[] counts = new GridConfig(size, size, 0.3, 0.5, 0.2).getOperationCounts();
+            assertEquals(size * size, counts[0] + counts[1] + counts[2]);
+        }
+    }
+
+    @Test
+    public void testSystemProperties() {
+        try {
+            System.setProperty(GridConfig.COLUMNS_PROPERTY, "10");
+            System.setProperty(GridConfig.ROWS_PROPERTY, "7");
+            System.setProperty(GridConfig.OPERATORS_PROPERTY, "2:1:1");
+            GridConfig grid = GridConfig.fromSystemProperties();
+            assertEquals(10, grid.getColumns());
+            assertEquals(7, grid.getRows());
+            assertArrayEquals(new int[]{35, 18, 17}, grid.getOperationCounts());
+
+            //Values that are not valid keep the defaults
+            System.setProperty(GridConfig.COLUMNS_PROPERTY, "11");
+            System.setProperty(GridConfig.OPERATORS_PROPERTY, "0:0:0");
+            grid = GridConfig.fromSystemProperties();
+            assertEquals(3, grid.getColumns());
+            assertArrayEquals(new int[]{7, 7, 7}, grid.getOperationCounts());
+        } finally {
+            System.clearProperty(GridConfig.COLUMNS_PROPERTY);
+            System.clearProperty(GridConfig.ROWS_PROPERTY);
+            System.clearProperty(GridConfig.OPERATORS_PROPERTY);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidDimensions() {
+        new GridConfig(0, 3, 1, 1, 1);
+    }
+}
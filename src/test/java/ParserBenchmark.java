@@ -0,0 +1,83 @@
+import de.congrace.exp4j.Calculable;
+import de.congrace.exp4j.CustomFunction;
+import de.congrace.exp4j.CustomOperator;
+import de.congrace.exp4j.ExpressionBuilder;
+import fractals.Equation;
+
+/**
+ * Measures the throughput of parsing Equations compared with the exp4j conversion to postfix that Equations were
+ * parsed with before. Only the part of the old path up to splitting the postfix expression is measured, so the old
+ * path was at least this slow. This is not a unit test; run its main method with the test classpath, for example from
+ * an IDE.
+ */
+public class ParserBenchmark {
+    private static final int EQUATIONS = 100;
+    private static final int ROUNDS = 5;
+    private static final int REPETITIONS = 200;
+
+    //Keeps the results alive so that the JIT cannot remove the work being measured
+    private static int sink;
+
+    public static void main(String[] args) throws Exception {
+        //exp4j cannot read the form that if is written out in, so the expressions are evolved without it
+        final String[] expressions = new String[EQUATIONS];
+        for (int i = 0; i < EQUATIONS; i++) {
+            Equation equation;
+            do {
+                equation = Equation.generateRandomXEquation();
+                for (int j = 0; j < 3; j++) {
+                    equation.introduce();
+                }
+            } while (equation.getExpression().contains("if"));
+            expressions[i] = equation.getExpression();
+        }
+
+        for (int round = 0; round < ROUNDS; round++) {
+            final long start = System.nanoTime();
+            for (int r = 0; r < REPETITIONS; r++) {
+                for (String expression : expressions) {
+                    sink += exp4j(expression).length;
+                }
+            }
+            final long middle = System.nanoTime();
+            for (int r = 0; r < REPETITIONS; r++) {
+                for (String expression : expressions) {
+                    sink += new Equation(expression).getSize();
+                }
+            }
+            final long end = System.nanoTime();
+
+            final double parses = EQUATIONS * REPETITIONS;
+            System.out.printf("round %d: exp4j %.0f parses/s, parser %.0f parses/s, %.1fx faster%n", round,
+                    parses * 1e9 / (middle - start), parses * 1e9 / (end - middle),
+                    (middle - start) / (double) (end - middle));
+        }
+        System.out.println(sink);
+    }
+
+    /**
+     * Converts an expression to postfix the way Equations used to.
+     *
+     * @param expression
+     *
+     * @return
+     *
+     * @throws Exception
+     */
+    private static String[] exp4j(String expression) throws Exception {
+        CustomFunction conditionalFunction = new CustomFunction("if", 3) {
+            public double applyFunction(double[] values) {
+                return values[0] >= 0 ? values[1] : values[2];
+            }
+        };
+        CustomOperator greaterThan = new CustomOperator(">", true, 10, 2) {
+            @Override
+            public double applyOperation(double[] values) {
+                return values[0] > values[1] ? 1.0 : 0.0;
+            }
+        };
+        Calculable calc = new ExpressionBuilder(expression).withVariableNames("x", "y", "z", "r", "g", "b")
+                .withOperation(greaterThan).withCustomFunction(conditionalFunction).build();
+        return calc.getExpression().split(" ");
+    }
+}
@@ -0,0 +1,62 @@
+import fractals.Equation;
+import fractals.RandomSource;
+import fractals.Randoms;
+import fractals.Xoshiro256;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RandomsTest {
+    @Test
+    public void testReproducibleSession() {
+        final long seed = Randoms.getSeed();
+        try {
+            Randoms.setSeed(42);
+            final String first = evolve();
+            Randoms.setSeed(42);
+            assertEquals(first, evolve());
+            Randoms.setSeed(43);
+            assertNotEquals(first, evolve());
+        } finally {
+            Randoms.setSeed(seed);
+        }
+    }
+
+    private static String evolve() {
+        final Equation equation = new Equation("sin(1.5 * y) + x * 0.25");
+        final Equation other = new Equation("if(x, cos(y), z / 3) - 0.5");
+        for (int i = 0; i < 20; i++) {
+            equation.introduce();
+            equation.cross(other);
+            other.mutate();
+        }
+        return equation.getExpression() + " " + other.getExpression();
+    }
+
+    @Test
+    public void testRanges() {
+        final RandomSource random = new Xoshiro256(7);
+        final int[] counts = new int[7];
+        for (int i = 0; i < 70000; i++) {
+            final double d = random.nextDouble();
+            assertTrue(d >= 0 && d < 1);
+            counts[random.nextInt(counts.length)]++;
+        }
+        //Every value is about equally likely
+        for (int count : counts) {
+            assertTrue(Math.abs(count - 10000) < 500);
+        }
+    }
+
+    @Test
+    public void testSameSeedSameSequence() {
+        final RandomSource a = new Xoshiro256(123), b = new Xoshiro256(123), c = new Xoshiro256(124);
+        for (int i = 0; i < 100; i++) {
+            final long value = a.nextLong();
+            assertEquals(value, b.nextLong());
+            assertNotEquals(value, c.nextLong());
+        }
+    }
+}
@@ -0,0 +1,66 @@
+import fractals.RenderCache;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+public class RenderCacheTest {
+    @Test
+    public void testKey() {
+        assertEquals(RenderCache.key("x", "y"), RenderCache.key("x", "y"));
+        assertEquals(64, RenderCache.key("x", "y").length());
+        //The parts are separated so that moving text between them changes the key
+        assertNotEquals(RenderCache.key("x", "y"), RenderCache.key("xy", ""));
+    }
+
+    @Test
+    public void testMemoryEviction() {
+        //Room for two 10x10 images
+        final RenderCache cache = new RenderCache(800, null, 0);
+        final BufferedImage a = image(), b = image(), c = image();
+        cache.put("a", a);
+        cache.put("b", b);
+        //Using a makes b the least recently used image
+        assertSame(a, cache.get("a"));
+        cache.put("c", c);
+
+        assertSame(a, cache.get("a"));
+        assertNull(cache.get("b"));
+        assertSame(c, cache.get("c"));
+        assertEquals(800, cache.getMemoryBytes());
+    }
+
+    @Test
+    public void testDiskTier() throws Exception {
+        final Path directory = Files.createTempDirectory("render-cache");
+        try {
+            final RenderCache cache = new RenderCache(800, directory, 1 << 20);
+            cache.put("a", image());
+
+            //A new cache with an empty memory tier still finds the image on disk
+            final BufferedImage image = new RenderCache(800, directory, 1 << 20).get("a");
+            assertNotNull(image);
+            assertEquals(10, image.getWidth());
+            assertEquals(0xFF8000, image.getRGB(3, 4) & 0xFFFFFF);
+        } finally {
+            for (File file : directory.toFile().listFiles()) {
+                file.delete();
+            }
+            Files.delete(directory);
+        }
+    }
+
+    private static BufferedImage image() {
+        final BufferedImage image = new BufferedImage(10, 10, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(3, 4, 0xFF8000);
+        return image;
+    }
+}
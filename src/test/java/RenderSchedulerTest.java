@@ -0,0 +1,111 @@
+import fractals.CancellationToken;
+import fractals.RenderPriority;
+import fractals.RenderScheduler;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class RenderSchedulerTest {
+    @Test
+    public void testPriorityOrder() throws Exception {
+        final RenderScheduler scheduler = new RenderScheduler(1);
+        final CountDownLatch started = new CountDownLatch(1), release = new CountDownLatch(1);
+        final List<RenderPriority> order = Collections.synchronizedList(new ArrayList<RenderPriority>());
+
+        //Keep the only thread busy until everything else is queued
+        scheduler.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                started.countDown();
+                release.await();
+                return null;
+            }
+        }, RenderPriority.VISIBLE, new CancellationToken());
+        started.await();
+
+        final List<Future<Void>> futures = new ArrayList<>();
+        for (final RenderPriority priority : new RenderPriority[]{RenderPriority.EXPORT, RenderPriority.PREFETCH,
+                RenderPriority.VISIBLE, RenderPriority.PROBE}) {
+            futures.add(scheduler.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    order.add(priority);
+                    return null;
+                }
+            }, priority, new CancellationToken()));
+        }
+        release.countDown();
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        scheduler.shutdown();
+
+        assertEquals(Arrays.asList(RenderPriority.PROBE, RenderPriority.VISIBLE, RenderPriority.PREFETCH,
+                RenderPriority.EXPORT), order);
+    }
+
+    @Test
+    public void testCancelCancelsToken() {
+        final RenderScheduler scheduler = new RenderScheduler(1);
+        final CancellationToken token = new CancellationToken();
+        final CountDownLatch release = new CountDownLatch(1);
+
+        final Future<Void> future = scheduler.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                release.await();
+                return null;
+            }
+        }, RenderPriority.VISIBLE, token);
+        future.cancel(false);
+        release.countDown();
+        scheduler.shutdown();
+
+        assertTrue(future.isCancelled());
+        assertTrue(token.isCanceled());
+    }
+
+    @Test
+    public void testCancellationListeners() {
+        final CancellationToken token = new CancellationToken();
+        final int[] runs = new int[1];
+        final Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                runs[0]++;
+            }
+        };
+        token.addListener(listener);
+        token.cancel();
+        token.cancel();
+        assertEquals(1, runs[0]);
+
+        //Listeners added after cancellation run immediately
+        token.addListener(listener);
+        assertEquals(2, runs[0]);
+    }
+
+    @Test(expected = CancellationException.class, timeout = 10000)
+    public void testSleepIsCanceled() throws Exception {
+        final CancellationToken token = new CancellationToken();
+        new Thread() {
+            @Override
+            public void run() {
+                token.cancel();
+            }
+        }.start();
+
+        //The canceled sleep returns long before its timeout
+        token.sleep(60000);
+    }
+}
@@ -0,0 +1,142 @@
+import fractals.Equation;
+import fractals.Fractal;
+import fractals.ImageManager;
+import fractals.OrbitOutcome;
+import fractals.Probe;
+import fractals.Renderer;
+import fractals.ToneMap;
+import org.junit.Test;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RendererTest {
+    //A Clifford Attractor with well-known constants that fills a large part of the image
+    private static Fractal clifford() {
+        return new Fractal(new Equation("sin(-1.4 * y) + 1.6 * cos(-1.4 * x)"),
+                new Equation("sin(1.6 * x) + 0.7 * cos(1.6 * y)"), new Equation("x + y"));
+    }
+
+    @Test
+    public void testImageSize() {
+        final BufferedImage image = new Renderer(160, 120, 20000).render(clifford());
+
+        assertEquals(160, image.getWidth());
+        assertEquals(120, image.getHeight());
+    }
+
+    @Test
+    public void testCoverage() {
+        final Renderer attractor = new Renderer(160, 120, 20000);
+        attractor.render(clifford());
+        assertTrue(attractor.getCoverage() > 0.05);
+
+        //An orbit that collapses onto a single point
+        final Renderer fixedPoint = new Renderer(160, 120, 20000);
+        fixedPoint.render(new Fractal(new Equation("0.5 * x"), new Equation("0.5 * y"), new Equation("z")));
+        assertTrue(fixedPoint.getCoverage() < 0.001);
+    }
+
+    @Test
+    public void testScore() {
+        final Renderer attractor = new Renderer(160, 120, 20000);
+        attractor.render(clifford());
+        assertFalse(attractor.isTerminatedEarly());
+        assertFalse(attractor.getScore().isSparse());
+
+        //Orbits that collapse onto a single point or escape to infinity are stopped after a few thousand points
+        for (Fractal f : new Fractal[]{new Fractal(new Equation("0.5 * x"), new Equation("0.5 * y"), new Equation("z")),
+                new Fractal(new Equation("2 * x + 1"), new Equation("2 * y + 1"), new Equation("z"))}) {
+            final Renderer renderer = new Renderer(160, 120, 20000);
+            renderer.render(f);
+            assertTrue(renderer.isTerminatedEarly());
+            assertTrue(renderer.getScore().isSparse());
+        }
+    }
+
+    @Test
+    public void testOutcome() {
+        assertEquals(OrbitOutcome.ATTRACTOR, outcome(clifford()));
+        assertEquals(OrbitOutcome.CYCLE, outcome(new Fractal(new Equation("0.5 * x"), new Equation("0.5 * y"),
+                new Equation("z"))));
+        assertEquals(OrbitOutcome.CYCLE, outcome(new Fractal(new Equation("0 - x"), new Equation("0 - y"),
+                new Equation("z"))));
+        assertEquals(OrbitOutcome.DIVERGED, outcome(new Fractal(new Equation("2 * x + 1"), new Equation("2 * y + 1"),
+                new Equation("z"))));
+    }
+
+    @Test
+    public void testProbe() {
+        //A copy of clifford() whose constants are slightly perturbed, so that its orbits are seeded differently
+        final Fractal perturbed = new Fractal(new Equation("sin(-1.401 * y) + 1.6 * cos(-1.4 * x)"),
+                new Equation("sin(1.6 * x) + 0.701 * cos(1.6 * y)"), new Equation("x + y"));
+        final Probe[] probes = ImageManager.probe(Arrays.asList(new Fractal(new Equation("0.5 * x"),
+                new Equation("0.5 * y"), new Equation("z")), clifford(), perturbed));
+
+        assertTrue(probes[0].getScore().isSparse());
+        assertFalse(probes[1].getScore().isSparse());
+        assertTrue(probes[1].getScore().compareTo(probes[0].getScore()) < 0);
+
+        //Probes of nearly the same Fractal look alike even though their orbits start from different random points
+        assertTrue(probes[1].isNearDuplicate(probes[2]));
+        assertFalse(probes[1].isNearDuplicate(probes[0]));
+    }
+
+    private static OrbitOutcome outcome(Fractal f) {
+        final Renderer renderer = new Renderer(160, 120, 20000);
+        renderer.setEarlyTermination(false);
+        renderer.render(f);
+        return renderer.getOutcome();
+    }
+
+    @Test
+    public void testDeterministicParallelRender() {
+        final Fractal fractal = clifford();
+        final int[] first = pixels(render(fractal, 4, 42));
+
+        assertArrayEquals(first, pixels(render(fractal, 4, 42)));
+        assertFalse(Arrays.equals(first, pixels(render(fractal, 4, 43))));
+    }
+
+    @Test
+    public void testToneMap() {
+        final Renderer renderer = new Renderer(160, 120, 20000);
+        renderer.setSeed(42);
+        final int[] dark = pixels(renderer.render(clifford()));
+        renderer.setToneMap(new ToneMap(2.2, 4));
+        final int[] bright = pixels(renderer.render(clifford()));
+
+        //Tone mapping changes how bright pixels are drawn but not which pixels are lit
+        long darkSum = 0, brightSum = 0;
+        for (int i = 0; i < dark.length; i++) {
+            assertEquals((dark[i] & 0xFFFFFF) == 0, (bright[i] & 0xFFFFFF) == 0);
+            darkSum += (dark[i] >> 8) & 0xFF;
+            brightSum += (bright[i] >> 8) & 0xFF;
+        }
+        assertTrue(brightSum > darkSum);
+    }
+
+    @Test(expected = CancellationException.class)
+    public void testCancel() {
+        final Renderer renderer = new Renderer(160, 120, 20000);
+        renderer.cancel();
+        renderer.render(clifford());
+    }
+
+    private static BufferedImage render(Fractal fractal, int orbits, long seed) {
+        final Renderer renderer = new Renderer(160, 120, 20000);
+        renderer.setOrbits(orbits);
+        renderer.setSeed(seed);
+        return renderer.render(fractal);
+    }
+
+    private static int[] pixels(BufferedImage image) {
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+}